@@ -0,0 +1,98 @@
+package com.github.cossbow.nsq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease. The limit grows by about one per
+ * limit samples that succeed in time, and is cut by the backoff ratio when a
+ * message is requeued or takes longer than the tolerance times the best latency
+ * of the last one to two windows. It is cut at most once per round trip: a drop
+ * of a message dispatched before the previous cut does not cut it again.
+ */
+public class AimdConcurrencyLimit implements ConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double tolerance;
+    private final long windowNanos;
+
+    private double limit;
+    private boolean sampled;
+    private long windowStart;
+    private long windowMin = Long.MAX_VALUE;
+    private long previousMin = Long.MAX_VALUE;
+    private long lastDecrease = Long.MIN_VALUE;
+
+
+    public AimdConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 0.9, 2.0);
+    }
+
+    /**
+     * @param backoffRatio factor applied to the limit on a drop, in (0, 1)
+     * @param tolerance    latency above tolerance times the best recent latency counts as a drop
+     */
+    public AimdConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double tolerance) {
+        this(initialLimit, minLimit, maxLimit, backoffRatio, tolerance, 10_000);
+    }
+
+    /**
+     * @param windowMillis the best latency is taken over the current and the previous window,
+     *                     so a downstream that became slower for good is followed within two
+     */
+    public AimdConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double tolerance,
+                                long windowMillis) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("illegal limit bounds: " + minLimit + ", " + maxLimit);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("'backoffRatio' must be in (0, 1)");
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("'tolerance' must not be less than 1");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("'windowMillis' must be positive");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public void onSample(long latencyNanos, boolean success) {
+        onSample(latencyNanos, success, System.nanoTime());
+    }
+
+    synchronized void onSample(long latencyNanos, boolean success, long now) {
+        if (!sampled || now - windowStart >= windowNanos) {
+            // a whole window without samples leaves no baseline to keep
+            previousMin = sampled && now - windowStart < 2 * windowNanos ? windowMin : Long.MAX_VALUE;
+            windowMin = Long.MAX_VALUE;
+            windowStart = now;
+            sampled = true;
+        }
+        windowMin = Math.min(windowMin, latencyNanos);
+        var baseline = Math.min(windowMin, previousMin);
+        if (success && latencyNanos <= baseline * tolerance) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        } else if (now - latencyNanos >= lastDecrease) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            lastDecrease = now;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AimdConcurrencyLimit{limit=" + getLimit() + '}';
+    }
+}
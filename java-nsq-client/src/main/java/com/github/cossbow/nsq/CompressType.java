@@ -7,8 +7,6 @@ import org.xerial.snappy.SnappyFramedOutputStream;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 
 public enum CompressType {
@@ -17,7 +15,7 @@ public enum CompressType {
 
     Snappy(in -> new SnappyFramedInputStream(in), out -> new SnappyFramedOutputStream(out)),
 
-    Deflate(in -> new InflaterInputStream(in), out -> new DeflaterOutputStream(out)),
+    Deflate(ZlibPool::inflate, ZlibPool::deflate),
 
     ;
 
@@ -56,6 +54,7 @@ public enum CompressType {
 
 
     public byte[] encode(byte[] s) throws IOException {
+        if (Non == this) return s;
         var os = new ByteArrayOutputStream();
         try (var out = output.apply(os)) {
             out.write(s);
@@ -0,0 +1,38 @@
+package com.github.cossbow.nsq;
+
+/**
+ * Source of the number of messages a consumer keeps in flight, replacing
+ * its fixed concurrency. RDY for each connection follows the limit.
+ */
+public interface ConcurrencyLimit {
+
+    int getLimit();
+
+    /**
+     * Called when a message is finished or requeued.
+     *
+     * @param latencyNanos from dispatch to finish or requeue
+     * @param success      true if finished
+     */
+    default void onSample(long latencyNanos, boolean success) {
+    }
+
+    /**
+     * The lower of two limits, samples go to both.
+     */
+    static ConcurrencyLimit min(ConcurrencyLimit a, ConcurrencyLimit b) {
+        return new ConcurrencyLimit() {
+            @Override
+            public int getLimit() {
+                return Math.min(a.getLimit(), b.getLimit());
+            }
+
+            @Override
+            public void onSample(long latencyNanos, boolean success) {
+                a.onSample(latencyNanos, success);
+                b.onSample(latencyNanos, success);
+            }
+        };
+    }
+
+}
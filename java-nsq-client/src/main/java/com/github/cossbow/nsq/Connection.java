@@ -12,20 +12,18 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollSocketChannel;
-import io.netty.channel.kqueue.KQueue;
-import io.netty.channel.kqueue.KQueueEventLoopGroup;
-import io.netty.channel.kqueue.KQueueSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -40,26 +38,7 @@ public class Connection {
 
     public static final byte[] MAGIC_PROTOCOL_VERSION = "  V2".getBytes();
     public static final AttributeKey<Connection> STATE = AttributeKey.valueOf("Connection.state");
-    private static EventLoopGroup defaultGroup;
-
-    static final int AvailableGroupType_Nio = 1;
-    static final int AvailableNioType_Epoll = 2;
-    static final int AvailableGroupType_KQueue = 3;
-    private static final int AvailableGroupType;
-    private static final Class<? extends Channel> SocketChannelClass;
-
-    static {
-        if (isEpollIsAvailable()) {
-            AvailableGroupType = AvailableNioType_Epoll;
-            SocketChannelClass = EpollSocketChannel.class;
-        } else if (isKQueueAvailable()) {
-            AvailableGroupType = AvailableGroupType_KQueue;
-            SocketChannelClass = KQueueSocketChannel.class;
-        } else {
-            AvailableGroupType = AvailableGroupType_Nio;
-            SocketChannelClass = NioSocketChannel.class;
-        }
-    }
+    private static final Map<Transport, EventLoopGroup> defaultGroups = new EnumMap<>(Transport.class);
 
 
     private final ServerAddress address;
@@ -68,6 +47,10 @@ public class Connection {
     private Consumer<NSQException> errorCallback = null;
     private final LinkedBlockingQueue<NSQCommand> requests = new LinkedBlockingQueue<>(1);
     private final LinkedBlockingQueue<NSQFrame> responses = new LinkedBlockingQueue<>(1);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final CompletableFuture<Void> closeWait = new CompletableFuture<>();
+    private volatile boolean closed = false;
+    private volatile NegotiatedFeatures features = NegotiatedFeatures.NONE;
 
     private final NSQConfig config;
 
@@ -80,10 +63,19 @@ public class Connection {
         this.config = config;
 
         final var bootstrap = new Bootstrap();
-        var group = config.getEventLoopGroup(getDefaultGroup());
+        var group = config.getEventLoopGroup(null);
+        Transport transport;
+        if (null == group) {
+            transport = Transport.select(config.getTransport());
+            group = getDefaultGroup(transport);
+        } else {
+            transport = Transport.of(group);
+        }
         bootstrap.group(group);
-        bootstrap.channel(SocketChannelClass);
-        bootstrap.handler(new NSQClientInitializer());
+        bootstrap.channel(transport.socketChannel());
+        configure(bootstrap, config, transport);
+        bootstrap.handler(new NSQClientInitializer(config.getFlushConsolidation(),
+                config.isConsolidateWhenNoReadInProgress()));
         // Start the connection attempt.
         final ChannelFuture future = bootstrap.connect(new InetSocketAddress(serverAddress.getHost(),
                 serverAddress.getPort()));
@@ -105,8 +97,12 @@ public class Connection {
 
         try {
             final NSQFrame response = commandAndWait(identify);
-            if (response != null) {
+            if (response instanceof ResponseFrame) {
                 log.info("Server identification: " + ((ResponseFrame) response).getMessage());
+                // set by NSQFeatureDetectionHandler before the response got here
+                if (features.isAuthRequired()) {
+                    log.warn("{} requires AUTH, which this client does not send", serverAddress);
+                }
             }
         } catch (final TimeoutException e) {
             log.error("Creating connection timed out", e);
@@ -117,8 +113,36 @@ public class Connection {
         }
     }
 
-    private static EventLoopGroup getDefaultGroup() {
-        synchronized (MAGIC_PROTOCOL_VERSION) {
+    /**
+     * Set the options the config has, the others keep Netty's and the OS defaults.
+     */
+    static void configure(Bootstrap bootstrap, NSQConfig config, Transport transport) {
+        if (null != config.getTcpNoDelay()) {
+            bootstrap.option(ChannelOption.TCP_NODELAY, config.getTcpNoDelay());
+        }
+        if (null != config.getReceiveBufferSize()) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+        if (null != config.getSendBufferSize()) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, config.getSendBufferSize());
+        }
+        if (null != config.getWriteBufferWaterMark()) {
+            bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, config.getWriteBufferWaterMark());
+        }
+        if (null != config.getConnectTimeoutMillis()) {
+            bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutMillis());
+        }
+        if (null != config.getAllocator()) {
+            bootstrap.option(ChannelOption.ALLOCATOR, config.getAllocator());
+        }
+        if (null != config.getEpollMode() && Transport.EPOLL == transport) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, config.getEpollMode());
+        }
+    }
+
+    private static EventLoopGroup getDefaultGroup(Transport transport) {
+        synchronized (defaultGroups) {
+            var defaultGroup = defaultGroups.get(transport);
             if (defaultGroup == null) {
                 var nt = System.getProperty("com.github.cossbow.nsq.Connection.EventLoopThreads");
                 int n = 1;
@@ -146,17 +170,9 @@ public class Connection {
                         t.setPriority(Thread.NORM_PRIORITY);
                     return t;
                 };
-                switch (AvailableGroupType) {
-                    case AvailableNioType_Epoll:
-                        defaultGroup = new EpollEventLoopGroup(n, tf);
-                        break;
-                    case AvailableGroupType_KQueue:
-                        defaultGroup = new KQueueEventLoopGroup(n, tf);
-                        break;
-                    default:
-                        defaultGroup = new NioEventLoopGroup(n, tf);
-                        break;
-                }
+                defaultGroup = transport.newEventLoopGroup(n, tf);
+                defaultGroups.put(transport, defaultGroup);
+                log.info("Created {} event loop group with {} threads", transport, n);
             }
             return defaultGroup;
         }
@@ -175,9 +191,12 @@ public class Connection {
 
     public void incoming(final NSQFrame frame) throws InterruptedException {
         if (frame instanceof ResponseFrame) {
-            if ("_heartbeat_".equals(((ResponseFrame) frame).getMessage())) {
+            if (((ResponseFrame) frame).isHeartbeat()) {
                 heartbeat();
                 return;
+            } else if (frame == ResponseFrame.CLOSE_WAIT) {
+                closeWait.complete(null);
+                return;
             } else {
                 if (!requests.isEmpty()) {
                     try {
@@ -207,13 +226,16 @@ public class Connection {
         if (frame instanceof MessageFrame) {
             final MessageFrame msg = (MessageFrame) frame;
 
-            final var message = new NSQMessage(this);
+            inFlight.incrementAndGet();
+            final NSQMessage message = consumer.isRecycleMessages() ?
+                    NSQMessage.newInstance(this) : new NSQMessage(this);
             message.setAttempts(msg.getAttempts());
             message.setId(msg.getId());
             message.setTimestamp(msg.getTimestamp());
             message.setCompress(msg.getCompress());
             message.setBuf(msg.getBuf());
             message.setNanoseconds(msg.getTimestamp());
+            msg.recycle();
             consumer.processMessage(message);
             return;
         }
@@ -233,9 +255,56 @@ public class Connection {
 
     public void close() {
         log.info("Closing  connection: " + this);
+        closed = true;
         channel.disconnect();
     }
 
+    /**
+     * Send CLS, nsqd stops delivering and answers CLOSE_WAIT.
+     *
+     * @return completes on CLOSE_WAIT, or exceptionally if CLS could not be sent
+     */
+    public CompletableFuture<Void> startClose() {
+        command(NSQCommand.startClose()).addListener(f -> {
+            if (!f.isSuccess()) closeWait.completeExceptionally(f.cause());
+        });
+        return closeWait;
+    }
+
+    /**
+     * Close after every command written before has been flushed.
+     */
+    public ChannelFuture flushAndClose() {
+        log.info("Closing  connection after flush: " + this);
+        closed = true;
+        return channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Called when the channel goes inactive. A connection not closed by
+     * the client itself is reported to its consumer as lost.
+     */
+    public void disconnected() {
+        if (!closed && null != consumer) {
+            consumer.connectionLost(this);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return messages received on this connection and not yet finished or requeued
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    void messageDone() {
+        inFlight.decrementAndGet();
+    }
+
     public NSQFrame commandAndWait(final NSQCommand command) throws TimeoutException, InterruptedException {
         try {
             if (!requests.offer(command, 15, TimeUnit.SECONDS)) {
@@ -273,6 +342,25 @@ public class Connection {
         }
     }
 
+    /**
+     * Send RDY, clamped to the max_rdy_count nsqd negotiated.
+     */
+    public ChannelFuture ready(int count) {
+        return command(NSQCommand.ready(features.clampReady(count)));
+    }
+
+    public NegotiatedFeatures getFeatures() {
+        return features;
+    }
+
+    /**
+     * Called by {@link com.github.cossbow.nsq.netty.NSQFeatureDetectionHandler} with the
+     * features parsed from the IDENTIFY response.
+     */
+    public void setFeatures(final NegotiatedFeatures features) {
+        this.features = features;
+    }
+
     public ServerAddress getServerAddress() {
         return address;
     }
@@ -285,24 +373,10 @@ public class Connection {
         this.consumer = consumer;
     }
 
-
-    //
-
-    private static boolean isEpollIsAvailable() {
-        try {
-            Class.forName("io.netty.channel.epoll.Epoll");
-            return Epoll.isAvailable();
-        } catch (ClassNotFoundException ignored) {
-            return false;
-        }
+    NSQConsumer getConsumer() {
+        return consumer;
     }
 
-    private static boolean isKQueueAvailable() {
-        try {
-            Class.forName("io.netty.channel.kqueue.KQueue");
-            return KQueue.isAvailable();
-        } catch (ClassNotFoundException ignored) {
-            return false;
-        }
-    }
+
+    //
 }
@@ -0,0 +1,204 @@
+package com.github.cossbow.nsq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers recently finished message keys in two rotating bloom filters,
+ * so a key stays known for at least one window and at most two.
+ * <p>
+ * A bloom filter may report a key it has never seen; such a message would be
+ * FINed without processing. Size the window so that
+ * {@link #getFalsePositiveProbability()} stays well below what the business tolerates.
+ */
+public class DedupWindow {
+
+    public static final long DEFAULT_MAX_BYTES = 8L << 20;
+
+    private final int numBits;      // per generation
+    private final int numHashes;
+    private final long windowNanos;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder insertions = new LongAdder();
+
+
+    public DedupWindow(int expectedInsertions, double falsePositiveRate, long windowMillis) {
+        this(expectedInsertions, falsePositiveRate, windowMillis, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param expectedInsertions keys finished within one window
+     * @param falsePositiveRate  wanted false positive probability at {@code expectedInsertions}
+     * @param windowMillis       how long a key is remembered at least
+     * @param maxBytes           memory limit of both generations together
+     */
+    public DedupWindow(int expectedInsertions, double falsePositiveRate, long windowMillis, long maxBytes) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("'expectedInsertions' must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("'falsePositiveRate' must be in (0, 1)");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("'windowMillis' must be positive");
+        }
+        if (maxBytes < 2 * Long.BYTES) {
+            throw new IllegalArgumentException("'maxBytes' too small");
+        }
+
+        var optimal = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        var limit = Math.min(maxBytes * 4, (long) Integer.MAX_VALUE - Long.SIZE); // two generations
+        var bits = (long) Math.min(Math.max(optimal, Long.SIZE), limit);
+        this.numBits = (int) ((bits + Long.SIZE - 1) / Long.SIZE * Long.SIZE);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.windowNanos = windowMillis * 1_000_000L;
+
+        this.current = new Generation(numBits, System.nanoTime());
+        this.previous = new Generation(numBits, current.createdAt);
+    }
+
+    /**
+     * @return true if the key was finished within the window, or on a false positive
+     */
+    public boolean mightContain(CharSequence key) {
+        rotateIfNeeded();
+        lookups.increment();
+        var h = hash(key);
+        if (current.mightContain(h) || previous.mightContain(h)) {
+            duplicates.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public void put(CharSequence key) {
+        rotateIfNeeded();
+        insertions.increment();
+        current.put(hash(key));
+    }
+
+    private void rotateIfNeeded() {
+        var now = System.nanoTime();
+        if (now - current.createdAt < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (now - current.createdAt < windowNanos) {
+                return;
+            }
+            previous = current;
+            current = new Generation(numBits, now);
+        }
+    }
+
+    //
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    public long getMemoryBytes() {
+        return 2L * numBits / Byte.SIZE;
+    }
+
+    /**
+     * Probability that a key never seen is reported as duplicate right now,
+     * estimated from the fill ratio of both generations.
+     */
+    public double getFalsePositiveProbability() {
+        var pc = current.falsePositiveProbability();
+        var pp = previous.falsePositiveProbability();
+        return 1 - (1 - pc) * (1 - pp);
+    }
+
+    /**
+     * Expected number of reported duplicates that were false positives.
+     */
+    public double getEstimatedFalsePositives() {
+        return (getLookups() - getDuplicates()) * getFalsePositiveProbability();
+    }
+
+    @Override
+    public String toString() {
+        return "DedupWindow{bits=" + numBits + ", hashes=" + numHashes +
+                ", lookups=" + getLookups() + ", duplicates=" + getDuplicates() +
+                ", fpp=" + getFalsePositiveProbability() + '}';
+    }
+
+    //
+
+    private static long hash(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private class Generation {
+        private final AtomicLongArray bits;
+        private final AtomicLong bitCount = new AtomicLong();
+        private final long createdAt;
+
+        Generation(int numBits, long createdAt) {
+            this.bits = new AtomicLongArray(numBits / Long.SIZE);
+            this.createdAt = createdAt;
+        }
+
+        boolean mightContain(long h) {
+            long h1 = h, h2 = mix(h ^ 0x9e3779b97f4a7c15L);
+            for (int i = 0; i < numHashes; i++) {
+                var index = Math.floorMod(h1 + i * h2, numBits);
+                if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long h) {
+            long h1 = h, h2 = mix(h ^ 0x9e3779b97f4a7c15L);
+            for (int i = 0; i < numHashes; i++) {
+                var index = Math.floorMod(h1 + i * h2, numBits);
+                var mask = 1L << index;
+                long old;
+                do {
+                    old = bits.get(index >>> 6);
+                    if ((old & mask) != 0) break;
+                } while (!bits.compareAndSet(index >>> 6, old, old | mask));
+                if ((old & mask) == 0) {
+                    bitCount.incrementAndGet();
+                }
+            }
+        }
+
+        double falsePositiveProbability() {
+            return Math.pow((double) bitCount.get() / numBits, numHashes);
+        }
+    }
+
+}
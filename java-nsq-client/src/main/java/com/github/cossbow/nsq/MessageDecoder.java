@@ -0,0 +1,25 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.util.ThrowoutFunction;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoder reading the message body straight from its buffer, without a stream
+ * wrapper or a copy. The buffer is a read-only view released after decoding,
+ * so the result must not keep a reference to it.
+ */
+@FunctionalInterface
+public interface MessageDecoder<T> extends ThrowoutFunction<InputStream, T, IOException> {
+
+    T decode(ByteBuf body) throws IOException;
+
+    @Override
+    default T apply(InputStream in) throws IOException {
+        return decode(Unpooled.wrappedBuffer(in.readAllBytes()));
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.github.cossbow.nsq;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The 16 bytes id of a message, kept as two longs so that it is read from the frame
+ * and written into FIN/REQ/TOUCH without a String or charset encoding.
+ */
+public final class MessageId implements CharSequence {
+
+    public static final int LENGTH = 16;
+
+    private final long high;
+    private final long low;
+
+
+    private MessageId(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static MessageId read(ByteBuf buf) {
+        return new MessageId(buf.readLong(), buf.readLong());
+    }
+
+    /**
+     * @param id the 16 ASCII characters of an id
+     */
+    public static MessageId of(CharSequence id) {
+        if (id instanceof MessageId) {
+            return (MessageId) id;
+        }
+        if (id.length() != LENGTH) {
+            throw new IllegalArgumentException("message id must be " + LENGTH + " characters: " + id);
+        }
+        long high = 0, low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = high << 8 | (id.charAt(i) & 0xff);
+            low = low << 8 | (id.charAt(i + 8) & 0xff);
+        }
+        return new MessageId(high, low);
+    }
+
+    public void writeTo(ByteBuf buf) {
+        buf.writeLong(high).writeLong(low);
+    }
+
+    //
+
+    @Override
+    public int length() {
+        return LENGTH;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= LENGTH) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        var word = index < 8 ? high : low;
+        return (char) (word >>> (56 - 8 * (index & 7)) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        var bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = (byte) charAt(i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MessageId)) return false;
+        var that = (MessageId) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high) * 31 + Long.hashCode(low);
+    }
+
+}
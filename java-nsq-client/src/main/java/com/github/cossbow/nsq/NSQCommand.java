@@ -5,13 +5,16 @@ import com.github.cossbow.nsq.exceptions.NSQDException;
 import com.github.cossbow.nsq.util.ThrowoutConsumer;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 
@@ -19,173 +22,205 @@ public class NSQCommand {
 
     private static final String LINE_SUFFIX = "\n";
 
+    private static final byte[] FIN = "FIN ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REQ = "REQ ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOUCH = "TOUCH ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final NSQCommand NOP = constant("NOP");
+    private static final NSQCommand CLS = constant("CLS");
+    private static final int READY_CACHE_SIZE = 2500; // nsqd's default max_rdy_count
+    private static final AtomicReferenceArray<NSQCommand> READY = new AtomicReferenceArray<>(READY_CACHE_SIZE + 1);
+
     private final String line;
 
     private final CompressType compress;
 
-    private final Runnable bufCreator;
+    private final Function<ByteBufAllocator, ByteBuf> encoder;
 
     private volatile ByteBuf buf;
 
-    private volatile int startIndex;
+    // pre-encoded and never released, every write gets its own duplicate
+    private ByteBuf shared;
+
+    // FIN/REQ/TOUCH
+    private byte[] ackVerb;
+    private MessageId ackId;
+    private long ackTimeout = -1;
 
     //
 
     private NSQCommand(String line, CompressType compress) {
         this.line = line;
         this.compress = CompressType.null2Non(compress);
-        this.bufCreator = this::init;
+        this.encoder = alloc -> writeLine(alloc, 0);
     }
 
     private NSQCommand(String line, CompressType compress, byte[] data) {
         this.line = line;
         this.compress = CompressType.null2Non(compress);
-        this.bufCreator = () -> writeData(data);
+        var body = compress(data);
+        this.encoder = alloc -> writeBodies(alloc, new byte[][]{body}, false);
     }
 
     private NSQCommand(String line, CompressType compress, Collection<byte[]> data) {
         this.line = line;
         this.compress = CompressType.null2Non(compress);
-        this.bufCreator = () -> writeData(data);
+        var bodies = data.stream().map(this::compress).toArray(byte[][]::new);
+        //for MPUB messages.
+        this.encoder = alloc -> writeBodies(alloc, bodies, bodies.length > 1);
     }
 
     private NSQCommand(String line, CompressType compress, ThrowoutConsumer<OutputStream, IOException> callback) {
         this.line = line;
         this.compress = CompressType.null2Non(compress);
-        this.bufCreator = () -> writeCallback(callback);
+        var body = writeCallback(callback);
+        this.encoder = alloc -> writeBodies(alloc, new byte[][]{body}, false);
     }
 
     private NSQCommand(String line, CompressType compress, Stream<ThrowoutConsumer<OutputStream, IOException>> callbackStream) {
         this.line = line;
-        this.compress = compress;
-        this.bufCreator = () -> writeCallbackStream(callbackStream);
+        this.compress = CompressType.null2Non(compress);
+        var bodies = callbackStream.map(this::writeCallback).toArray(byte[][]::new);
+        this.encoder = alloc -> writeBodies(alloc, bodies, true);
+    }
+
+    private NSQCommand(ByteBuf shared, String line) {
+        this.line = line;
+        this.compress = CompressType.Non;
+        this.shared = shared;
+        this.encoder = alloc -> shared.retainedDuplicate();
+    }
+
+    /**
+     * Direct, so sockets write it without copying it off the heap first.
+     */
+    private static NSQCommand constant(String line) {
+        var bytes = (line + LINE_SUFFIX).getBytes(StandardCharsets.US_ASCII);
+        var buf = Unpooled.directBuffer(bytes.length, bytes.length).writeBytes(bytes);
+        return new NSQCommand(Unpooled.unreleasableBuffer(buf.asReadOnly()), line);
+    }
+
+    private NSQCommand(byte[] verb, MessageId id, long timeoutMillis) {
+        this.line = null;
+        this.compress = CompressType.Non;
+        this.ackVerb = verb;
+        this.ackId = id;
+        this.ackTimeout = timeoutMillis;
+        this.encoder = this::writeAck;
     }
 
     //
 
-    private void init() {
-        buf = ByteBufAllocator.DEFAULT.buffer();
-        try {
+    /**
+     * @param bodySize bytes following the line
+     */
+    private ByteBuf writeLine(ByteBufAllocator alloc, int bodySize) {
+        var bytes = line.getBytes(StandardCharsets.UTF_8);
+        var suffix = line.endsWith(LINE_SUFFIX) ? 0 : 1;
+        var buf = alloc.ioBuffer(bytes.length + suffix + bodySize);
+        buf.writeBytes(bytes);
+        if (suffix > 0) {
+            buf.writeByte('\n');
+        }
+        return buf;
+    }
 
-            if (line.endsWith(LINE_SUFFIX)) {
-                buf.writeBytes(line.getBytes(StandardCharsets.UTF_8));
-            } else {
-                buf.writeBytes(line.getBytes(StandardCharsets.UTF_8))
-                        .writeBytes(LINE_SUFFIX.getBytes());
+    /**
+     * Write the ack line straight from the id bytes into a buffer of the exact size.
+     */
+    private ByteBuf writeAck(ByteBufAllocator alloc) {
+        var size = ackVerb.length + MessageId.LENGTH + 1;
+        if (ackTimeout >= 0) {
+            size += 1 + digits(ackTimeout);
+        }
+        var buf = alloc.ioBuffer(size, size);
+        buf.writeBytes(ackVerb);
+        ackId.writeTo(buf);
+        if (ackTimeout >= 0) {
+            buf.writeByte(' ');
+            var end = buf.writerIndex() + digits(ackTimeout);
+            var v = ackTimeout;
+            for (int i = end - 1; i >= buf.writerIndex(); i--) {
+                buf.setByte(i, (int) ('0' + v % 10));
+                v /= 10;
             }
-            startIndex = buf.writerIndex();
-
-        } catch (Throwable e) {
-            ReferenceCountUtil.safeRelease(buf);
-            throw e;
+            buf.writerIndex(end);
         }
+        buf.writeByte('\n');
+        return buf;
     }
 
-    private void writeData(byte[] data) {
-        init();
-        try {
-            var ed = compress.decode(data);
-            buf.writeInt(ed.length);
-            buf.writeBytes(ed);
-        } catch (Throwable e) {
-            ReferenceCountUtil.safeRelease(buf);
-            throw new NSQDException(e);
+    private static int digits(long v) {
+        int n = 1;
+        while (v >= 10) {
+            v /= 10;
+            n++;
         }
+        return n;
     }
 
-    private void writeData(Collection<byte[]> data) {
-        init();
-        // compress
-        var da = new byte[data.size()][];
-        var i = 0;
+    private byte[] compress(byte[] data) {
         try {
-            for (var d : data) {
-                da[i++] = compress.encode(d);
-            }
+            return compress.encode(data);
         } catch (Throwable e) {
-            ReferenceCountUtil.safeRelease(buf);
             throw new NSQDException(e);
         }
-        //for MPUB messages.
-        if (da.length > 1) {
-            //write total bodysize and message size
-            int bodySize = 4; //4 for total messages int.
-            for (var d : da) {
-                bodySize += 4; //message size
-                bodySize += d.length;
-            }
-            buf.writeInt(bodySize);
-            buf.writeInt(da.length);
-        }
-
-        for (var d : da) {
-            buf.writeInt(d.length);
-            buf.writeBytes(d);
-        }
     }
 
-    private void writeCallback(ThrowoutConsumer<OutputStream, IOException> callback) {
-        init();
-        buf.writeInt(0);
-
-        var os = new ByteBufOutputStream(buf);
+    private byte[] writeCallback(ThrowoutConsumer<OutputStream, IOException> callback) {
+        var os = new ByteArrayOutputStream();
         try (var out = compress.output.apply(os)) {
             callback.accept(out);
         } catch (Throwable e) {
-            ReferenceCountUtil.safeRelease(buf);
             throw new NSQDException(e);
         }
-        var end = buf.writerIndex(); // 结束位置
-        var len = os.writtenBytes();    // 数据长度
-
-        buf.writerIndex(startIndex);        // 写入长度
-        buf.writeInt(len);
-        buf.writerIndex(end);
-
+        return os.toByteArray();
     }
 
-    private void writeCallbackStream(Stream<ThrowoutConsumer<OutputStream, IOException>> callbackStream) {
-        init();
-        buf.writeInt(0);            // 总大小
-        buf.writeInt(0);            // 总数量
-
-        var lenArr = callbackStream.mapToInt(callback -> {
-            var is = buf.writerIndex(); // size位置
-            buf.writeInt(0);
-
-            var os = new ByteBufOutputStream(buf);
-            try (var out = compress.output.apply(os)) {
-                callback.accept(out);
-            } catch (IOException e) {
-                ReferenceCountUtil.safeRelease(buf);
-                throw new NSQDException(e);
-            }
-            var ie = buf.writerIndex(); // 结束位置
-            var len = os.writtenBytes();
-
-            buf.writerIndex(is);
-            buf.writeInt(len);
-            buf.writerIndex(ie);
-
-            return len + 4;
-        }).toArray();
+    /**
+     * @param multi MPUB framing: total body size and message count ahead of the messages
+     */
+    private ByteBuf writeBodies(ByteBufAllocator alloc, byte[][] bodies, boolean multi) {
+        int bodySize = 0;
+        for (var d : bodies) {
+            bodySize += 4; //message size
+            bodySize += d.length;
+        }
+        var buf = writeLine(alloc, multi ? 8 + bodySize : bodySize);
+        if (multi) {
+            //write total bodysize and message size
+            buf.writeInt(4 + bodySize); //4 for total messages int.
+            buf.writeInt(bodies.length);
+        }
 
-        var end = buf.writerIndex();
-        buf.writerIndex(startIndex);            // 写入长度
-        int len = 4;
-        for (var it : lenArr) {
-            len += it;
+        for (var d : bodies) {
+            buf.writeInt(d.length);
+            buf.writeBytes(d);
         }
-        buf.writeInt(len);              // 总大小
-        buf.writeInt(lenArr.length);    // 总数量
-        buf.writerIndex(end);
+        return buf;
     }
 
     //
 
+    /**
+     * Encode into a new buffer from {@code alloc}, sized exactly from the line and body
+     * lengths. The caller owns the buffer. Bodies, callback ones included, are written and
+     * compressed when the command is created, on the caller's thread, so this only copies
+     * them in and can be called again.
+     */
+    public ByteBuf encode(ByteBufAllocator alloc) {
+        return encoder.apply(alloc);
+    }
+
+    /**
+     * Encode once with the default allocator and keep the buffer until {@link #release()}.
+     */
     public ByteBuf getBuf() {
+        if (null != shared) {
+            return shared.retainedDuplicate();
+        }
         if (null == buf) {
-            bufCreator.run();
+            buf = encode(ByteBufAllocator.DEFAULT);
         }
         return buf;
     }
@@ -196,7 +231,11 @@ public class NSQCommand {
 
     @Override
     public String toString() {
-        return line;
+        if (null != line) {
+            return line;
+        }
+        var verb = new String(ackVerb, StandardCharsets.US_ASCII);
+        return ackTimeout >= 0 ? verb + ackId + ' ' + ackTimeout : verb + ackId;
     }
 
 
@@ -219,13 +258,21 @@ public class NSQCommand {
     // Touch creates a new Command to reset the timeout for
     // a given message (by id)
     public static NSQCommand touch(CharSequence messageID) {
-        return new NSQCommand("TOUCH " + messageID, null);
+        return touch(MessageId.of(messageID));
+    }
+
+    public static NSQCommand touch(MessageId messageID) {
+        return new NSQCommand(TOUCH, messageID, -1);
     }
 
     // Finish creates a new Command to indiciate that
     // a given message (by id) has been processed successfully
     public static NSQCommand finish(CharSequence messageID) {
-        return new NSQCommand("FIN " + messageID, null);
+        return finish(MessageId.of(messageID));
+    }
+
+    public static NSQCommand finish(MessageId messageID) {
+        return new NSQCommand(FIN, messageID, -1);
     }
 
     // Subscribe creates a new Command to subscribe to the given topic/channel
@@ -238,23 +285,37 @@ public class NSQCommand {
     // send messages to a client in this state and the client is expected
     // finish pending messages and close the connection
     public static NSQCommand startClose() {
-        return new NSQCommand("CLS", null);
+        return CLS;
     }
 
     public static NSQCommand requeue(CharSequence messageID, int timeoutMillis) {
-        return new NSQCommand("REQ " + messageID + " " + timeoutMillis, null);
+        return requeue(MessageId.of(messageID), timeoutMillis);
+    }
+
+    public static NSQCommand requeue(MessageId messageID, int timeoutMillis) {
+        return new NSQCommand(REQ, messageID, Math.max(0, timeoutMillis));
     }
 
     // Nop creates a new Command that has no effect server side.
     // Commonly used to respond to heartbeats
     public static NSQCommand nop() {
-        return new NSQCommand("NOP", null);
+        return NOP;
     }
 
     // Ready creates a new Command to specify
     // the number of messages a client is willing to receive
     public static NSQCommand ready(int rdy) {
-        return new NSQCommand("RDY " + rdy, null);
+        if (rdy < 0 || rdy > READY_CACHE_SIZE) {
+            return new NSQCommand("RDY " + rdy, null);
+        }
+        var command = READY.get(rdy);
+        if (null == command) {
+            command = constant("RDY " + rdy);
+            if (!READY.compareAndSet(rdy, null, command)) {
+                command = READY.get(rdy);
+            }
+        }
+        return command;
     }
 
     // Publish creates a new Command to write a message to a given topic
@@ -263,7 +324,9 @@ public class NSQCommand {
     }
 
     /**
-     * @throws NSQDException write buffer error
+     * The callback runs here, on the caller's thread.
+     *
+     * @throws NSQDException if the callback or compressing its output fails
      */
     public static NSQCommand publish(String topic, CompressType compress, ThrowoutConsumer<OutputStream, IOException> callback) {
         return new NSQCommand("PUB " + topic, compress, callback);
@@ -275,7 +338,9 @@ public class NSQCommand {
     }
 
     /**
-     * @throws NSQDException write buffer error
+     * The callback runs here, on the caller's thread.
+     *
+     * @throws NSQDException if the callback or compressing its output fails
      */
     public static NSQCommand publish(String topic, CompressType compress, int deferTime, ThrowoutConsumer<OutputStream, IOException> callback) {
         return new NSQCommand("DPUB " + topic + " " + deferTime, compress, callback);
@@ -289,7 +354,9 @@ public class NSQCommand {
     }
 
     /**
-     * @throws NSQDException write buffer error
+     * The callbacks run here, on the caller's thread.
+     *
+     * @throws NSQDException if a callback or compressing its output fails
      */
     public static NSQCommand multiPublish(String topic, CompressType compress, Stream<ThrowoutConsumer<OutputStream, IOException>> callbackStream) {
         return new NSQCommand("MPUB " + topic, compress, callbackStream);
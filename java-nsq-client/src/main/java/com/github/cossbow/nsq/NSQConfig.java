@@ -1,7 +1,10 @@
 package com.github.cossbow.nsq;
 
 import com.github.cossbow.nsq.exceptions.NSQDException;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollMode;
 import io.netty.handler.ssl.SslContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +43,17 @@ public class NSQConfig implements Cloneable {
     private Integer msgTimeout = null;
     private SslContext sslContext = null;
     private EventLoopGroup eventLoopGroup = null;
+    // transport, null leaves Netty's default
+    private Boolean tcpNoDelay = null;
+    private Integer receiveBufferSize = null;
+    private Integer sendBufferSize = null;
+    private WriteBufferWaterMark writeBufferWaterMark = null;
+    private Integer connectTimeoutMillis = null;
+    private ByteBufAllocator allocator = null;
+    private EpollMode epollMode = null;
+    private Transport transport = Transport.AUTO;
+    private int flushConsolidation = 0;
+    private boolean consolidateWhenNoReadInProgress = false;
 
     public NSQConfig() {
         try {
@@ -80,6 +94,14 @@ public class NSQConfig implements Cloneable {
         return this;
     }
 
+    /**
+     * @param maxInFlight null for the consumer's concurrency
+     */
+    public NSQConfig setMaxInFlight(final Integer maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
     public Optional<Integer> getMaxInFlight() {
         return null == maxInFlight ? Optional.empty() : Optional.of(maxInFlight);
     }
@@ -168,6 +190,143 @@ public class NSQConfig implements Cloneable {
         this.eventLoopGroup = eventLoopGroup;
     }
 
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(Boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * SO_RCVBUF in bytes, null keeps the OS default and its auto-tuning.
+     */
+    public void setReceiveBufferSize(Integer receiveBufferSize) {
+        if (null != receiveBufferSize && receiveBufferSize <= 0) {
+            throw new IllegalArgumentException("'receiveBufferSize' must be positive");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * SO_SNDBUF in bytes, null keeps the OS default and its auto-tuning.
+     */
+    public void setSendBufferSize(Integer sendBufferSize) {
+        if (null != sendBufferSize && sendBufferSize <= 0) {
+            throw new IllegalArgumentException("'sendBufferSize' must be positive");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
+    /**
+     * Outbound bytes queued in a channel above which it turns unwritable, and below which
+     * it is writable again.
+     */
+    public void setWriteBufferWaterMark(int low, int high) {
+        this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+    }
+
+    public Integer getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(Integer connectTimeoutMillis) {
+        if (null != connectTimeoutMillis && connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("'connectTimeoutMillis' can not be negative");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public ByteBufAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * Allocator of the channels, e.g. {@code new PooledByteBufAllocator(false)} to keep
+     * buffers on the heap.
+     */
+    public void setAllocator(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public EpollMode getEpollMode() {
+        return epollMode;
+    }
+
+    /**
+     * Edge or level triggered, only applies when the epoll transport is used.
+     */
+    public void setEpollMode(EpollMode epollMode) {
+        this.epollMode = epollMode;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Transport used when no event loop group is set, falls back to the best available one.
+     */
+    public void setTransport(Transport transport) {
+        if (null == transport) {
+            throw new IllegalArgumentException("'transport' can not be null");
+        }
+        this.transport = transport;
+    }
+
+    public void setTransportProfile(TransportProfile profile) {
+        if (null == profile) {
+            throw new IllegalArgumentException("'profile' can not be null");
+        }
+        profile.applyTo(this);
+    }
+
+    public int getFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public boolean isConsolidateWhenNoReadInProgress() {
+        return consolidateWhenNoReadInProgress;
+    }
+
+    /**
+     * Merge flushes with Netty's FlushConsolidationHandler, flushing at least every
+     * {@code explicitFlushAfterFlushes}. 0 (default) flushes every write at once.
+     *
+     * @param whenNoReadInProgress also merge flushes from other threads than the event
+     *                             loop, e.g. FIN from the callbacks, at the cost of a task
+     */
+    public void setFlushConsolidation(int explicitFlushAfterFlushes, boolean whenNoReadInProgress) {
+        if (explicitFlushAfterFlushes < 0) {
+            throw new IllegalArgumentException("'explicitFlushAfterFlushes' can not be negative");
+        }
+        this.flushConsolidation = explicitFlushAfterFlushes;
+        this.consolidateWhenNoReadInProgress = whenNoReadInProgress;
+    }
+
+    /**
+     * Set output buffering, heartbeat, messages in flight and flushing together, replacing
+     * every one of them: what the profile leaves null goes back to the default.
+     */
+    public void setWorkloadProfile(WorkloadProfile profile) {
+        if (null == profile) {
+            throw new IllegalArgumentException("'profile' can not be null");
+        }
+        profile.applyTo(this);
+    }
+
 
     //
 
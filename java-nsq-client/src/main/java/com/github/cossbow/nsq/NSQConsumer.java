@@ -4,8 +4,11 @@ package com.github.cossbow.nsq;
 import com.github.cossbow.nsq.exceptions.NSQException;
 import com.github.cossbow.nsq.exceptions.NoConnectionsException;
 import com.github.cossbow.nsq.lookup.NSQLookup;
+import com.github.cossbow.nsq.lookup.RendezvousSubset;
 import com.github.cossbow.nsq.util.NSQUtil;
 import com.github.cossbow.nsq.util.ThrowoutFunction;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,13 +17,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 public class NSQConsumer<T> implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(NSQConsumer.class);
 
+    private static final int DEFAULT_MSG_TIMEOUT = 60 * 1000; // nsqd default
+
 
     private final NSQLookup lookup;
     private final String topic;
@@ -34,10 +42,41 @@ public class NSQConsumer<T> implements Closeable {
     private final AtomicLong totalMessages = new AtomicLong(0L);
 
     private volatile boolean started = false;
+    private volatile boolean closing = false;
+    private boolean closed = false;
+    private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+    private volatile CompletableFuture<Void> closeWait = null;
+    private long drainTimeout = 30 * 1000; // how long to wait for in-flight messages on shutdown
+    private volatile ScheduledFuture<?> lookupFuture = null;
+    private volatile Set<ServerAddress> knownAddresses = Set.of();
+    private final Map<ServerAddress, Long> reconnectDelays = new ConcurrentHashMap<>();
+    private final Map<ServerAddress, Timeout> reconnects = new ConcurrentHashMap<>();
+    private long reconnectBaseDelay = 100;
+    private long reconnectMaxDelay = 30 * 1000;
+    private volatile RateLimiter rateLimiter = null;
+    private volatile boolean rateBytes = false;
+    private volatile boolean throttled = false;
+    private volatile ConcurrencyLimit concurrencyLimit = null;
+    private volatile int lastReady = -1;
+    private volatile boolean retainBody = false;
+    private volatile boolean recycleMessages = false;
+    private long localRetryThreshold = 0;
     private int messagesPerBatch;
     private long lookupPeriod = 60 * 1000; // how often to recheck for new nodes (and clean up non responsive nodes)
-    private ExecutorService executor = NSQUtil.DEFAULT_EXECUTOR;
-    private volatile ScheduledFuture<?> timeoutFuture = null;
+    private Executor executor = NSQUtil.DEFAULT_EXECUTOR;
+    private Timer timer = NSQUtil.TIMER;
+    private volatile RendezvousSubset subset = null;
+    private volatile ArrayBlockingQueue<NSQMessage<T>> prefetch = null;
+    private int prefetchCapacity, prefetchWorkers, prefetchLow, prefetchHigh;
+    private final AtomicInteger prefetchRunning = new AtomicInteger();
+    private final AtomicBoolean prefetchSweeping = new AtomicBoolean();
+    private volatile boolean prefetchPaused = false;
+    private volatile Timeout timeoutFuture = null;
+    private volatile DedupWindow dedup = null;
+    private volatile Function<T, ? extends CharSequence> dedupKey = null;
+    private volatile boolean adaptiveWorkload = false;
+    private long rateSampleNanos, rateSampleTotal;
+    private double messageRate = -1;
 
 
     public NSQConsumer(final NSQLookup lookup, final String topic, final String channel, final int concurrency, final Consumer<NSQMessage<T>> callback,
@@ -63,19 +102,19 @@ public class NSQConsumer<T> implements Closeable {
             started = true;
             //connect once otherwise we might have to wait one lookupPeriod
             connect();
-            NSQUtil.SCHEDULER.scheduleAtFixedRate(this::connect, lookupPeriod, lookupPeriod, TimeUnit.MILLISECONDS);
+            lookupFuture = NSQUtil.SCHEDULER.scheduleAtFixedRate(this::connect, lookupPeriod, lookupPeriod, TimeUnit.MILLISECONDS);
         }
         return this;
     }
 
     private Connection createConnection(final ServerAddress serverAddress) {
         try {
-            final Connection connection = new Connection(serverAddress, config);
+            final Connection connection = new Connection(serverAddress, connectionConfig());
 
             connection.setConsumer(this);
             connection.setErrorCallback(errorCallback);
             connection.command(NSQCommand.subscribe(topic, channel));
-            connection.command(NSQCommand.ready(messagesPerBatch));
+            connection.ready(readyCount());
 
             return connection;
         } catch (final NoConnectionsException e) {
@@ -88,59 +127,513 @@ public class NSQConsumer<T> implements Closeable {
         }
     }
 
+    /**
+     * With adaptive workload, pick the output buffering of a new connection by the
+     * message rate seen since the previous one.
+     */
+    private NSQConfig connectionConfig() {
+        if (!adaptiveWorkload) {
+            return config;
+        }
+        var rate = sampleRate();
+        if (rate < 0) {
+            return config;
+        }
+        var profile = WorkloadProfile.forRate(rate);
+        log.debug("{}[{}] {} msg/s, connect with {}", topic, channel, (long) rate, profile);
+        var c = config.clone();
+        profile.applyBuffering(c);
+        return c;
+    }
+
+    private synchronized double sampleRate() {
+        var now = System.nanoTime();
+        var total = totalMessages.get();
+        var elapsed = now - rateSampleNanos;
+        if (0 == rateSampleNanos) {
+            rateSampleNanos = now;
+            rateSampleTotal = total;
+        } else if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            messageRate = (total - rateSampleTotal) * 1e9 / elapsed;
+            rateSampleNanos = now;
+            rateSampleTotal = total;
+        }
+        return messageRate;
+    }
+
     protected void processMessage(final NSQMessage<T> message) {
+        if (closing) {
+            // arrived before nsqd handled CLS, let another consumer have it
+            message.release();
+            message.requeue();
+            return;
+        }
+        // a recycled message must not be touched once it is finished, requeued or handed off
+        final var connection = message.getConnection();
+        final var size = message.getSize();
+        message.setTouchedAt(System.nanoTime());
+        dispatch(message, connection);
+
+        final long tot = totalMessages.incrementAndGet();
+        if (limitRate(size)) {
+            return;
+        }
+        if (tot % messagesPerBatch > (messagesPerBatch / 2)) {
+            //request some more!
+            connection.ready(readyCount());
+        }
+    }
+
+    private void dispatch(final NSQMessage<T> message, final Connection connection) {
+        var id = message.getId();
         if (callback == null) {
+            // leave it to another consumer, it would stay in flight otherwise
             message.release();
-            log.warn("NO Callback, dropping message: " + message);
-        } else {
-            try (var in = message.newMessageStream()) {
-                var t = decoder.apply(in);
-                message.setObj(t);
-            } catch (Throwable e) {
-                log.error("decode message body", e);
-                message.finished();
-            } finally {
-                message.release();
+            message.requeue();
+            log.warn("NO Callback, requeue message {}", id);
+            return;
+        }
+        if (isDuplicate(id)) {
+            message.release();
+            message.finished();
+            log.debug("duplicate message {}, finished", id);
+            return;
+        }
+        try {
+            message.setObj(decode(message));
+        } catch (Throwable e) {
+            log.error("decode message body", e);
+            message.release();
+            message.finished();
+            return;
+        }
+        if (!retainBody) message.release();
+        if (null != dedupKey && null != message.getObj() && isDuplicate(dedupKey.apply(message.getObj()))) {
+            message.finished();
+            log.debug("duplicate message {} by key, finished", id);
+            return;
+        }
+        if (null != prefetch) {
+            enqueue(message);
+            return;
+        }
+        try {
+            message.setDispatchedAt(System.nanoTime());
+            executor.execute(() -> callback.accept(message));
+        } catch (RejectedExecutionException re) {
+            log.trace("Backing off");
+            message.requeue();
+            updateTimeout(connection, 500);
+            return;
+        }
+        if (nextTimeout > 0) {
+            updateTimeout(connection, -500);
+        }
+    }
+
+    private void enqueue(final NSQMessage<T> message) {
+        var buffer = prefetch;
+        message.setDispatchedAt(System.nanoTime());
+        if (!buffer.offer(message)) {
+            message.requeue();
+            return;
+        }
+        if (!prefetchPaused && buffer.size() >= prefetchHigh) {
+            prefetchPaused = true;
+            log.trace("RDY 0! prefetch buffer full");
+            readyAll(0);
+        }
+        if (prefetchSweeping.compareAndSet(false, true)) {
+            scheduleSweep();
+        }
+        startDrain();
+    }
+
+    private void startDrain() {
+        var buffer = prefetch;
+        int running;
+        do {
+            running = prefetchRunning.get();
+            if (running >= prefetchWorkers || buffer.isEmpty()) {
+                return;
             }
-            try {
-                executor.execute(() -> callback.accept(message));
-                if (nextTimeout > 0) {
-                    updateTimeout(message, -500);
+        } while (!prefetchRunning.compareAndSet(running, running + 1));
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            prefetchRunning.decrementAndGet();
+            log.warn("prefetch worker rejected, {} messages buffered", buffer.size());
+        }
+    }
+
+    private void drain() {
+        var buffer = prefetch;
+        try {
+            NSQMessage<T> message;
+            while (null != (message = pollPrefetch(buffer))) {
+                resumePrefetch(buffer);
+                if (closing) {
+                    message.requeue();
+                } else if (checkAge(message)) {
+                    message.setDispatchedAt(System.nanoTime());
+                    try {
+                        callback.accept(message);
+                    } catch (Throwable e) {
+                        log.error("message callback error", e);
+                    }
                 }
-            } catch (RejectedExecutionException re) {
-                log.trace("Backing off");
-                message.requeue();
-                updateTimeout(message, 500);
             }
+        } finally {
+            prefetchRunning.decrementAndGet();
         }
+        startDrain();
+    }
 
-        final long tot = totalMessages.incrementAndGet();
-        if (tot % messagesPerBatch > (messagesPerBatch / 2)) {
-            //request some more!
-            rdy(message, messagesPerBatch);
+    /**
+     * The sweep walks the buffer under its monitor, so a message it sees is never one
+     * a worker has taken and maybe already finished.
+     */
+    private NSQMessage<T> pollPrefetch(final ArrayBlockingQueue<NSQMessage<T>> buffer) {
+        synchronized (buffer) {
+            return buffer.poll();
+        }
+    }
+
+    private void resumePrefetch(final ArrayBlockingQueue<NSQMessage<T>> buffer) {
+        if (prefetchPaused && buffer.size() <= prefetchLow) {
+            prefetchPaused = false;
+            if (!closing) readyAll(readyCount());
         }
     }
 
-    private void updateTimeout(final NSQMessage<T> message, long change) {
-        rdy(message, 0);
+    /**
+     * Touch a message that waited half of msg_timeout in the buffer, give up on one
+     * that nsqd has already timed out and will deliver again.
+     */
+    private boolean checkAge(final NSQMessage<T> message) {
+        var timeoutNanos = msgTimeoutNanos(message);
+        var age = System.nanoTime() - message.getDispatchedAt();
+        if (age >= timeoutNanos) {
+            log.warn("message {} waited {}ms in prefetch buffer, timed out", message.getId(), age / 1_000_000);
+            message.requeue();
+            return false;
+        }
+        if (age >= timeoutNanos / 2 && !message.isTouched()) {
+            message.setTouched(true);
+            message.touch();
+        }
+        return true;
+    }
+
+    private void scheduleSweep() {
+        timer.newTimeout(t -> sweepPrefetch(), sweepPeriodNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Check the age of buffered messages while the workers are busy, every quarter
+     * of the shortest msg_timeout as long as the buffer is not empty.
+     */
+    private void sweepPrefetch() {
+        var buffer = prefetch;
+        if (closing) {
+            prefetchSweeping.set(false);
+            return;
+        }
+        var now = System.nanoTime();
+        var expired = new ArrayList<NSQMessage<T>>();
+        synchronized (buffer) {
+            for (var it = buffer.iterator(); it.hasNext(); ) {
+                var message = it.next();
+                var timeoutNanos = msgTimeoutNanos(message);
+                var age = now - message.getDispatchedAt();
+                if (age >= timeoutNanos) {
+                    it.remove();
+                    expired.add(message);
+                } else if (age >= timeoutNanos / 2 && !message.isTouched()) {
+                    message.setTouched(true);
+                    message.touch();
+                }
+            }
+        }
+        for (var message : expired) {
+            log.warn("message {} waited {}ms in prefetch buffer, timed out",
+                    message.getId(), (now - message.getDispatchedAt()) / 1_000_000);
+            message.requeue();
+        }
+        resumePrefetch(buffer);
+        if (buffer.isEmpty()) {
+            prefetchSweeping.set(false);
+            // a message enqueued meanwhile may have seen the flag still set
+            if (buffer.isEmpty() || !prefetchSweeping.compareAndSet(false, true)) {
+                return;
+            }
+        }
+        scheduleSweep();
+    }
+
+    private long sweepPeriodNanos() {
+        long timeout = Long.MAX_VALUE;
+        for (var connection : connections.values()) {
+            var negotiated = connection.getFeatures().getMsgTimeout();
+            if (negotiated > 0) timeout = Math.min(timeout, negotiated);
+        }
+        if (Long.MAX_VALUE == timeout) {
+            timeout = configuredMsgTimeout();
+        }
+        return TimeUnit.MILLISECONDS.toNanos(timeout) / 4;
+    }
+
+    /**
+     * msg_timeout negotiated with the message's nsqd, else the configured or default one.
+     */
+    private long msgTimeoutNanos(final NSQMessage<T> message) {
+        long timeout = message.getConnection().getFeatures().getMsgTimeout();
+        if (timeout <= 0) {
+            timeout = configuredMsgTimeout();
+        }
+        return TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    private long configuredMsgTimeout() {
+        var configured = config.getMsgTimeout();
+        return null != configured ? configured : DEFAULT_MSG_TIMEOUT;
+    }
+
+    /**
+     * @return RDY count for each connection
+     */
+    private int readyCount() {
+        if (throttled || prefetchPaused) {
+            return 0;
+        }
+        var n = messagesPerBatch;
+        var buffer = prefetch;
+        if (null != buffer) {
+            // in flight = running + buffered, so this never overfills the buffer
+            var size = Math.max(1, connections.size());
+            n = Math.max(1, (prefetchCapacity + prefetchWorkers) / size);
+        }
+        var limit = concurrencyLimit;
+        if (null != limit) {
+            var size = Math.max(1, connections.size());
+            var share = Math.max(1, (limit.getLimit() + size - 1) / size);
+            n = null != buffer ? Math.min(n, share) : share;
+        }
+        var limiter = rateLimiter;
+        if (null != limiter && !rateBytes) {
+            var share = limiter.getBurst() / Math.max(1, connections.size());
+            n = (int) Math.min(n, Math.max(1, share));
+        }
+        return n;
+    }
+
+    /**
+     * Take tokens for a message of {@code size} bytes, and pause all connections while the limiter is in debt.
+     *
+     * @return true if throttled
+     */
+    private boolean limitRate(final int size) {
+        var limiter = rateLimiter;
+        if (null == limiter) {
+            return false;
+        }
+        var delay = limiter.acquire(rateBytes ? size : 1);
+        if (delay <= 0) {
+            return throttled;
+        }
+        synchronized (this) {
+            if (throttled) {
+                return true;
+            }
+            throttled = true;
+        }
+        log.trace("RDY 0! rate limited for {}ns", delay);
+        readyAll(0);
+        timer.newTimeout(t -> resumeRate(), delay, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    private void resumeRate() {
+        var delay = rateLimiter.delayNanos();
+        if (delay > 0) {
+            timer.newTimeout(t -> resumeRate(), delay, TimeUnit.NANOSECONDS);
+            return;
+        }
+        throttled = false;
+        if (!closing) {
+            readyAll(readyCount());
+        }
+    }
+
+    private void readyAll(int size) {
+        lastReady = size;
+        connections.values().forEach(connection -> connection.ready(size));
+    }
+
+    /**
+     * Reconnect a connection closed by the peer or the network without waiting
+     * for the next lookup, backing off with decorrelated jitter while it fails.
+     */
+    void connectionLost(final Connection connection) {
+        var address = connection.getServerAddress();
+        if (!connections.remove(address, connection) || closing) {
+            return;
+        }
+        log.warn("Connection to {} lost, reconnect", address);
+        scheduleReconnect(address);
+    }
+
+    private void scheduleReconnect(final ServerAddress address) {
+        var delay = reconnectDelays.merge(address, reconnectBaseDelay, (last, base) -> {
+            var upper = Math.max(base + 1, Math.min(reconnectMaxDelay, last * 3));
+            return ThreadLocalRandom.current().nextLong(base, upper);
+        });
+        log.debug("reconnect {} in {}ms", address, delay);
+        reconnects.put(address, timer.newTimeout(t -> {
+            CompletableFuture.runAsync(() -> reconnect(address), NSQUtil.DEFAULT_EXECUTOR);
+        }, delay, TimeUnit.MILLISECONDS));
+        if (closing) {
+            cancelReconnects();
+        }
+    }
+
+    private void cancelReconnects() {
+        reconnects.values().forEach(Timeout::cancel);
+        reconnects.clear();
+    }
+
+    private void reconnect(final ServerAddress address) {
+        reconnects.remove(address);
+        if (closing || connections.containsKey(address)) {
+            reconnectDelays.remove(address);
+            return;
+        }
+        var addresses = knownAddresses;
+        if (!addresses.isEmpty() && !addresses.contains(address)) {
+            log.info("{} no longer serves {}, stop reconnecting", address, topic);
+            reconnectDelays.remove(address);
+            return;
+        }
+        var connection = createConnection(address);
+        if (null != connection && connection.isConnected()) {
+            reconnectDelays.remove(address);
+            addConnection(address, connection);
+            log.info("Reconnected to {}", address);
+        } else {
+            if (null != connection) connection.close();
+            scheduleReconnect(address);
+        }
+    }
+
+    private void addConnection(final ServerAddress address, final Connection connection) {
+        if (null != connections.putIfAbsent(address, connection) || closing) {
+            connection.close();
+        } else if (!connection.isConnected()) {
+            // dropped before it was added, connectionLost did not find it then
+            connectionLost(connection);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(final NSQMessage<T> message) throws IOException {
+        if (decoder instanceof MessageDecoder) {
+            return ((MessageDecoder<T>) decoder).decode(message.body());
+        }
+        try (var in = message.newMessageStream()) {
+            return decoder.apply(in);
+        }
+    }
+
+    private boolean isDuplicate(CharSequence key) {
+        var window = dedup;
+        return null != window && null != key && window.mightContain(key);
+    }
+
+    /**
+     * Called once per message when it is finished or requeued.
+     */
+    void messageDone(final NSQMessage<T> message, boolean finished) {
+        message.getConnection().messageDone();
+        if (retainBody) {
+            message.release();
+        }
+        var limit = concurrencyLimit;
+        if (null != limit && message.getDispatchedAt() > 0) {
+            limit.onSample(System.nanoTime() - message.getDispatchedAt(), finished);
+            if (!closing && readyCount() != lastReady) {
+                readyAll(readyCount());
+            }
+        }
+        var window = dedup;
+        if (finished && null != window) {
+            window.put(message.getId());
+            var keyFn = dedupKey;
+            if (null != keyFn && null != message.getObj()) {
+                var key = keyFn.apply(message.getObj());
+                if (null != key) window.put(key);
+            }
+        }
+        if (closing) {
+            tryFinishClose();
+        }
+    }
+
+    boolean retryLocally(final NSQMessage<T> message, int delayMillis) {
+        if (closing || null == callback || delayMillis <= 0 || delayMillis > localRetryThreshold) {
+            return false;
+        }
+        message.setAttempts(message.getAttempts() + 1);
+        waitRetry(message, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        return true;
+    }
+
+    /**
+     * Wait on the timer, touching the message so nsqd does not time it out meanwhile.
+     * The dispatch time is kept, so the concurrency limit samples the whole service time.
+     */
+    private void waitRetry(final NSQMessage<T> message, long delayNanos) {
+        var touchNanos = msgTimeoutNanos(message) / 2;
+        var step = Math.min(delayNanos, touchNanos);
+        if (System.nanoTime() - message.getTouchedAt() + step >= touchNanos) {
+            message.touch();
+        }
+        timer.newTimeout(t -> {
+            if (step < delayNanos && !closing) {
+                waitRetry(message, delayNanos - step);
+            } else {
+                redeliver(message);
+            }
+        }, step, TimeUnit.NANOSECONDS);
+    }
+
+    private void redeliver(final NSQMessage<T> message) {
+        if (closing) {
+            message.requeue();
+            return;
+        }
+        try {
+            executor.execute(() -> callback.accept(message));
+        } catch (RejectedExecutionException re) {
+            message.requeue();
+        }
+    }
+
+    private void updateTimeout(final Connection connection, long change) {
+        connection.ready(0);
         log.trace("RDY 0! Halt Flow.");
         if (null != timeoutFuture) {
             final var future = timeoutFuture;
-            future.cancel(false);
+            future.cancel();
             timeoutFuture = null;
         }
         var newTimeout = calculateTimeoutDate(change);
         if (newTimeout) {
-            timeoutFuture = NSQUtil.SCHEDULER.schedule(() -> {
-                rdy(message, 1); // test the waters
+            timeoutFuture = timer.newTimeout(t -> {
+                if (!throttled) connection.ready(1); // test the waters
             }, 0, TimeUnit.MILLISECONDS);
         }
     }
 
-    private void rdy(final NSQMessage<T> message, int size) {
-        message.getConnection().command(NSQCommand.ready(size));
-    }
-
     private boolean calculateTimeoutDate(final long i) {
         if (System.currentTimeMillis() - nextTimeout + i > 50) {
             nextTimeout += i;
@@ -151,23 +644,280 @@ public class NSQConsumer<T> implements Closeable {
         }
     }
 
+    /**
+     * Start a graceful shutdown with the configured drain timeout without waiting for it.
+     *
+     * @see #shutdownGracefully(long)
+     */
     public void shutdown() {
-        cleanClose();
+        shutdownGracefully();
+    }
+
+    /**
+     * Graceful shutdown with the configured drain timeout.
+     *
+     * @see #shutdownGracefully(long)
+     */
+    public CompletableFuture<Void> shutdownGracefully() {
+        return shutdownGracefully(drainTimeout);
     }
 
-    private void cleanClose() {
-        final NSQCommand command = NSQCommand.startClose();
-        connections.forEach((address, connection) -> {
-            var future = connection.command(command);
-            future.addListener(f -> {
-                if (f.isSuccess()) {
-                    log.info("CLOSE {} finish", address);
-                    connection.close();
+    /**
+     * Send CLS so nsqd stops delivering, wait for its CLOSE_WAIT and for the in-flight
+     * messages to be finished or requeued, then close the connections once their commands
+     * are flushed. Messages still in flight after the timeout are left to nsqd's msg_timeout.
+     *
+     * @return completes when all connections are closed
+     */
+    public synchronized CompletableFuture<Void> shutdownGracefully(long timeoutMillis) {
+        if (closing) {
+            return closeFuture;
+        }
+        closing = true;
+        Optional.ofNullable(lookupFuture).ifPresent(f -> f.cancel(false));
+        Optional.ofNullable(timeoutFuture).ifPresent(Timeout::cancel);
+        cancelReconnects();
+
+        var buffer = prefetch;
+        if (null != buffer) {
+            NSQMessage<T> message;
+            while (null != (message = pollPrefetch(buffer))) {
+                message.requeue();
+            }
+        }
+
+        var waits = connections.values().stream().map(connection -> {
+            var address = connection.getServerAddress();
+            return connection.startClose().whenComplete((v, e) -> {
+                if (null == e) {
+                    log.info("CLOSE_WAIT from {}, {} in flight", address, connection.getInFlight());
                 } else {
-                    log.error("CLOSE " + address + " error", f.cause());
+                    log.error("CLOSE " + address + " error", e);
                 }
             });
-        });
+        }).toArray(CompletableFuture[]::new);
+        closeWait = CompletableFuture.allOf(waits);
+        closeWait.whenComplete((v, e) -> tryFinishClose());
+
+        timer.newTimeout(t -> {
+            if (closeFuture.isDone()) {
+                return;
+            }
+            if (!closeWait.isDone()) {
+                log.warn("drain timeout, no CLOSE_WAIT from every nsqd");
+            }
+            if (getInFlight() > 0) {
+                log.warn("drain timeout, close with {} messages in flight", getInFlight());
+            }
+            finishClose();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        tryFinishClose();
+        return closeFuture;
+    }
+
+    /**
+     * Close once every nsqd answered CLS and nothing is in flight.
+     */
+    private void tryFinishClose() {
+        var wait = closeWait;
+        if (null != wait && wait.isDone() && getInFlight() <= 0) {
+            finishClose();
+        }
+    }
+
+    private void finishClose() {
+        synchronized (closeFuture) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            var futures = connections.values().stream().map(connection -> {
+                var future = new CompletableFuture<Void>();
+                connection.flushAndClose().addListener(f -> future.complete(null));
+                return future;
+            }).toArray(CompletableFuture[]::new);
+            connections.clear();
+            CompletableFuture.allOf(futures).whenComplete((v, e) -> closeFuture.complete(null));
+        }
+    }
+
+    /**
+     * @return messages received and not yet finished or requeued
+     */
+    public int getInFlight() {
+        int n = 0;
+        for (var connection : connections.values()) {
+            n += connection.getInFlight();
+        }
+        return n;
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Keep message bodies until the message is finished or requeued, so handlers can use
+     * {@link NSQMessage#body()} without copying. Otherwise bodies are released after decoding.
+     */
+    public synchronized NSQConsumer<T> setRetainBody(final boolean retainBody) {
+        if (!started) {
+            this.retainBody = retainBody;
+        }
+        return this;
+    }
+
+    /**
+     * Take messages from a pool and return them once finished or requeued, to cut allocation
+     * at high rates. A handler must not touch a message after calling
+     * {@link NSQMessage#finished()} or {@link NSQMessage#requeue(int)}. Messages never
+     * finished nor requeued are reported by Netty's leak detector.
+     */
+    public synchronized NSQConsumer<T> setRecycleMessages(final boolean recycleMessages) {
+        if (!started) {
+            this.recycleMessages = recycleMessages;
+        }
+        return this;
+    }
+
+    boolean isRecycleMessages() {
+        return recycleMessages;
+    }
+
+    /**
+     * Buffer received messages and have {@code workers} tasks on the executor drain them,
+     * so RDY, handler concurrency and executor capacity are sized apart. RDY covers the
+     * buffer and the running handlers; it goes to 0 when the buffer reaches {@code high}
+     * and comes back when it drains to {@code low}. Messages waiting longer than
+     * msg_timeout are given up.
+     */
+    public synchronized NSQConsumer<T> setPrefetch(final int capacity, final int workers, final int low, final int high) {
+        if (capacity <= 0 || workers <= 0) {
+            throw new IllegalArgumentException("'capacity' and 'workers' must be positive");
+        }
+        if (low < 0 || high <= low || high > capacity) {
+            throw new IllegalArgumentException("illegal watermarks: " + low + ", " + high);
+        }
+        if (!started) {
+            this.prefetch = new ArrayBlockingQueue<>(capacity);
+            this.prefetchCapacity = capacity;
+            this.prefetchWorkers = workers;
+            this.prefetchLow = low;
+            this.prefetchHigh = high;
+        }
+        return this;
+    }
+
+    public NSQConsumer<T> setPrefetch(final int capacity, final int workers) {
+        return setPrefetch(capacity, workers, capacity / 4, capacity);
+    }
+
+    /**
+     * @return messages waiting in the prefetch buffer
+     */
+    public int getPrefetched() {
+        var buffer = prefetch;
+        return null == buffer ? 0 : buffer.size();
+    }
+
+    /**
+     * Choose the output buffering and flushing of every new connection by the message
+     * rate observed so far, see {@link WorkloadProfile#forRate(double)}. The first
+     * connections use the config as it is, messages in flight never change.
+     */
+    public synchronized NSQConsumer<T> setAdaptiveWorkload(final boolean adaptiveWorkload) {
+        if (!started) {
+            this.adaptiveWorkload = adaptiveWorkload;
+        }
+        return this;
+    }
+
+    /**
+     * Connect to a subset of the nodes serving the topic instead of all of them,
+     * for clusters where every instance connecting to every node is too many sockets.
+     */
+    public synchronized NSQConsumer<T> setSubset(final RendezvousSubset subset) {
+        if (!started) {
+            this.subset = subset;
+        }
+        return this;
+    }
+
+    /**
+     * Timer for backoff, rate limit, drain and local retries, {@link NSQUtil#TIMER} by default.
+     */
+    public synchronized NSQConsumer<T> setTimer(final Timer timer) {
+        if (!started) {
+            this.timer = Objects.requireNonNull(timer);
+        }
+        return this;
+    }
+
+    /**
+     * Retry delays up to this are waited out in the client instead of a REQ, keeping the
+     * message in flight: it is not written to nsqd's deferred queue nor delivered again.
+     * The waiting messages take up RDY, so keep it short. 0 (default) disables it.
+     *
+     * @see NSQMessage#retry(int)
+     */
+    public synchronized NSQConsumer<T> setLocalRetryThreshold(final long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("'millis' can not be negative");
+        }
+        if (!started) {
+            this.localRetryThreshold = millis;
+        }
+        return this;
+    }
+
+    /**
+     * Bounds of the decorrelated jitter backoff used to reconnect a lost connection.
+     */
+    public synchronized NSQConsumer<T> setReconnectBackoff(final long baseMillis, final long maxMillis) {
+        if (baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("illegal reconnect backoff: " + baseMillis + ", " + maxMillis);
+        }
+        if (!started) {
+            this.reconnectBaseDelay = baseMillis;
+            this.reconnectMaxDelay = maxMillis;
+        }
+        return this;
+    }
+
+    /**
+     * Replace the fixed concurrency with a limit that may change while running,
+     * such as {@link AimdConcurrencyLimit}. It is fed the latency and outcome of each message.
+     */
+    public synchronized NSQConsumer<T> setConcurrencyLimit(final ConcurrencyLimit limit) {
+        if (!started) {
+            this.concurrencyLimit = limit;
+        }
+        return this;
+    }
+
+    /**
+     * Cap the messages per second, paced by RDY. The limiter may be shared with other consumers.
+     */
+    public NSQConsumer<T> setRateLimiter(final RateLimiter limiter) {
+        return setRateLimiter(limiter, false);
+    }
+
+    /**
+     * @param bytes count message body bytes instead of messages
+     */
+    public synchronized NSQConsumer<T> setRateLimiter(final RateLimiter limiter, final boolean bytes) {
+        if (!started) {
+            this.rateLimiter = limiter;
+            this.rateBytes = bytes;
+        }
+        return this;
+    }
+
+    public synchronized NSQConsumer<T> setDrainTimeout(final long timeoutMillis) {
+        if (!started) {
+            this.drainTimeout = timeoutMillis;
+        }
+        return this;
     }
 
     public NSQConsumer<T> setMessagesPerBatch(final int messagesPerBatch) {
@@ -177,6 +927,29 @@ public class NSQConsumer<T> implements Closeable {
         return this;
     }
 
+    /**
+     * Finish redelivered messages whose id was finished within the window, before decoding them.
+     */
+    public NSQConsumer<T> setDeduplication(final DedupWindow window) {
+        return setDeduplication(window, null);
+    }
+
+    /**
+     * Like {@link #setDeduplication(DedupWindow)}, also matching on a business key of the decoded
+     * message, so a message published twice is handled once. The key check runs after decoding.
+     */
+    public synchronized NSQConsumer<T> setDeduplication(final DedupWindow window, final Function<T, ? extends CharSequence> keyFn) {
+        if (!started) {
+            this.dedup = window;
+            this.dedupKey = keyFn;
+        }
+        return this;
+    }
+
+    public DedupWindow getDeduplication() {
+        return dedup;
+    }
+
     public synchronized NSQConsumer<T> setLookupPeriod(final long periodMillis) {
         if (!started) {
             this.lookupPeriod = periodMillis;
@@ -185,8 +958,16 @@ public class NSQConsumer<T> implements Closeable {
     }
 
 
+    private Set<ServerAddress> selectSubset(Set<ServerAddress> addresses) {
+        var s = subset;
+        return null == s ? addresses : s.select(addresses);
+    }
+
     private void connect() {
-        lookup.lookupAsync(topic).thenAcceptAsync(newAddresses -> {
+        lookup.lookupAsync(topic).thenApply(this::selectSubset).thenAcceptAsync(newAddresses -> {
+            if (closing) {
+                return;
+            }
             for (final var it = connections.entrySet().iterator(); it.hasNext(); ) {
                 Connection cnn = it.next().getValue();
                 if (!cnn.isConnected() || !cnn.isHeartbeatStatusOK()) {
@@ -205,6 +986,7 @@ public class NSQConsumer<T> implements Closeable {
                 // just log a message and keep moving
                 log.debug("No NSQLookup server connections or topic does not exist. Try latter...");
             } else {
+                knownAddresses = Set.copyOf(newAddresses);
                 Set<ServerAddress> diff = new HashSet<>(oldAddresses);
                 diff.removeAll(newAddresses);
                 for (final ServerAddress server : diff) {
@@ -218,7 +1000,7 @@ public class NSQConsumer<T> implements Closeable {
                 diff.forEach(server -> {
                     final Connection connection = createConnection(server);
                     if (connection != null) {
-                        connections.put(server, connection);
+                        addConnection(server, connection);
                     }
                 });
 
@@ -240,7 +1022,7 @@ public class NSQConsumer<T> implements Closeable {
      * The executer can only changed before the client is started.
      * Default is a cached threadpool.
      */
-    public synchronized NSQConsumer<T> setExecutor(final ExecutorService executor) {
+    public synchronized NSQConsumer<T> setExecutor(final Executor executor) {
         if (!started) {
             this.executor = executor;
         }
@@ -255,8 +1037,13 @@ public class NSQConsumer<T> implements Closeable {
         return lookup.lookup(topic);
     }
 
+    /**
+     * Shutdown and wait for it.
+     *
+     * @see #shutdownGracefully(long)
+     */
     @Override
     public void close() throws IOException {
-        shutdown();
+        shutdownGracefully().join();
     }
 }
@@ -2,28 +2,72 @@ package com.github.cossbow.nsq;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import io.netty.util.ResourceLeakTracker;
 
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 
 public class NSQMessage<T> {
 
-    private CharSequence id;
+    private static final Recycler<NSQMessage<?>> RECYCLER = new Recycler<>() {
+        @Override
+        protected NSQMessage<?> newObject(Handle<NSQMessage<?>> handle) {
+            return new NSQMessage<>(handle);
+        }
+    };
+
+    private static final ResourceLeakDetector<NSQMessage> leakDetector =
+            ResourceLeakDetectorFactory.instance().newResourceLeakDetector(NSQMessage.class);
+
+    private MessageId id;
     private int attempts;
     private long timestamp;
     private CompressType compress;
+    private int size;
+    private long dispatchedAt;
+    private long touchedAt;
+    private boolean touched;
 
     private ByteBuf buf;
-    private final Connection connection;
+    private Connection connection;
 
     private volatile InputStream body;
     private volatile boolean hasRead;
+    private volatile boolean released;
+    private boolean inflated;
     private volatile T obj;
+    private volatile boolean done;
+
+    private final Recycler.Handle<NSQMessage<?>> handle;
+    private ResourceLeakTracker<NSQMessage> leak;
 
     public NSQMessage(Connection connection) {
         this.connection = connection;
+        this.handle = null;
+    }
+
+    private NSQMessage(Recycler.Handle<NSQMessage<?>> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Take a message from the pool. It goes back once finished or requeued, and must not
+     * be used after that; one that is never finished nor requeued is reported as a leak.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> NSQMessage<T> newInstance(Connection connection) {
+        var message = (NSQMessage<T>) RECYCLER.get();
+        message.connection = connection;
+        message.leak = leakDetector.track(message);
+        return message;
     }
 
     /**
@@ -31,9 +75,11 @@ public class NSQMessage<T> {
      */
     public void finished() {
         connection.command(NSQCommand.finish(this.id));
+        done(true);
     }
 
     public void touch() {
+        touchedAt = System.nanoTime();
         connection.command(NSQCommand.touch(this.id));
     }
 
@@ -42,12 +88,65 @@ public class NSQMessage<T> {
      */
     public void requeue(int timeoutMillis) {
         connection.command(NSQCommand.requeue(this.id, timeoutMillis));
+        done(false);
     }
 
     public void requeue() {
         requeue(0);
     }
 
+    /**
+     * Process the message again after a delay. Short delays are waited out locally, see
+     * {@link NSQConsumer#setLocalRetryThreshold(long)}, other ones are sent back by REQ.
+     */
+    @SuppressWarnings("unchecked")
+    public void retry(int delayMillis) {
+        var consumer = (NSQConsumer<T>) connection.getConsumer();
+        if (null == consumer || !consumer.retryLocally(this, delayMillis)) {
+            requeue(delayMillis);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void done(boolean finished) {
+        synchronized (this) {
+            if (done) return;
+            done = true;
+        }
+        var consumer = (NSQConsumer<T>) connection.getConsumer();
+        if (null != consumer) {
+            consumer.messageDone(this, finished);
+        }
+        if (null != handle) {
+            recycle();
+        }
+    }
+
+    private void recycle() {
+        if (null != leak) {
+            leak.close(this);
+            leak = null;
+        }
+        release();
+        buf = null;
+        id = null;
+        attempts = 0;
+        timestamp = 0;
+        compress = null;
+        size = 0;
+        dispatchedAt = 0;
+        touchedAt = 0;
+        touched = false;
+        connection = null;
+        body = null;
+        hasRead = false;
+        released = false;
+        inflated = false;
+        obj = null;
+        done = false;
+        handle.recycle(this);
+    }
+
 
     //
 
@@ -55,11 +154,11 @@ public class NSQMessage<T> {
         return connection;
     }
 
-    public CharSequence getId() {
+    public MessageId getId() {
         return id;
     }
 
-    void setId(CharSequence id) {
+    void setId(MessageId id) {
         this.id = id;
     }
 
@@ -93,14 +192,54 @@ public class NSQMessage<T> {
 
     void setBuf(ByteBuf buf) {
         this.buf = buf;
+        this.size = buf.readableBytes();
     }
 
+    /**
+     * @return body size as received, before decompression
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Copy of the decompressed body.
+     *
+     * @throws IllegalStateException if the body has been released
+     * @see #body()
+     */
     public byte[] getMessage() {
-        try (var in = newMessageStream()) {
-            return in.readAllBytes();
-        } catch (IOException e) {
-            throw new IllegalStateException("message buf cannot read");
-        }
+        return ByteBufUtil.getBytes(body());
+    }
+
+    long getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    void setDispatchedAt(long dispatchedAt) {
+        this.dispatchedAt = dispatchedAt;
+    }
+
+    /**
+     * @return when nsqd last started the message's timeout: on delivery, then on every TOUCH
+     */
+    long getTouchedAt() {
+        return touchedAt;
+    }
+
+    void setTouchedAt(long touchedAt) {
+        this.touchedAt = touchedAt;
+    }
+
+    /**
+     * @return true if the consumer touched it while it waited in the prefetch buffer
+     */
+    boolean isTouched() {
+        return touched;
+    }
+
+    void setTouched(boolean touched) {
+        this.touched = touched;
     }
 
     public void setObj(T obj) {
@@ -113,10 +252,18 @@ public class NSQMessage<T> {
 
     //
 
+    /**
+     * Read the body once as a stream, decompressed.
+     *
+     * @throws IllegalStateException if the body has been released before it was opened
+     */
     public synchronized InputStream newMessageStream() throws IOException {
         if (!hasRead) {
+            if (released) {
+                throw new IllegalStateException("message body released");
+            }
             try {
-                var in = new ByteBufInputStream(buf, true) {
+                var in = new ByteBufInputStream(buf.retainedSlice(), true) {
                     @Override
                     public void close() throws IOException {
                         try {
@@ -133,14 +280,53 @@ public class NSQMessage<T> {
         return body;
     }
 
-    synchronized void release() {
-        if (!hasRead) {
+    /**
+     * Read-only view of the decompressed body, without copying when the message
+     * is not compressed. The view is valid until the body is released: right
+     * after decoding, or when the message is done if the consumer retains bodies.
+     *
+     * @throws IllegalStateException if the body has been released
+     * @see NSQConsumer#setRetainBody(boolean)
+     */
+    public synchronized ByteBuf body() {
+        if (released) {
+            throw new IllegalStateException("message body released");
+        }
+        if (!inflated && CompressType.Non != compress) {
             try {
-                ReferenceCountUtil.safeRelease(buf);
-            } finally {
-                hasRead = true;
+                var decoded = compress.decode(buf.duplicate());
+                buf.release();
+                buf = decoded;
+            } catch (IOException e) {
+                throw new UncheckedIOException("decompress message body", e);
             }
         }
+        inflated = true;
+        return buf.slice().asReadOnly();
+    }
+
+    /**
+     * Like {@link #body()}, with a reference the caller must release,
+     * so the view stays valid after the message released its own.
+     */
+    public ByteBuf retainedBody() {
+        return body().retain();
+    }
+
+    /**
+     * Read-only {@link ByteBuffer} of the body.
+     *
+     * @see #body()
+     */
+    public ByteBuffer bodyBuffer() {
+        return body().nioBuffer().asReadOnlyBuffer();
+    }
+
+    synchronized void release() {
+        if (!released) {
+            released = true;
+            ReferenceCountUtil.safeRelease(buf);
+        }
     }
 
 }
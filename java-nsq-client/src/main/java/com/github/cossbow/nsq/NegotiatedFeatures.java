@@ -0,0 +1,119 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.util.NSQUtil;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What nsqd answered to IDENTIFY with feature negotiation. Numbers nsqd did not send
+ * are 0, a plain "OK" answer gives {@link #NONE}.
+ */
+public class NegotiatedFeatures {
+    private static final Logger log = LoggerFactory.getLogger(NegotiatedFeatures.class);
+
+    public static final NegotiatedFeatures NONE = new NegotiatedFeatures();
+
+    private String version;
+    private int maxRdyCount;
+    private long maxMsgTimeout;
+    private long msgTimeout;
+    private boolean tlsV1;
+    private boolean deflate;
+    private int deflateLevel;
+    private int maxDeflateLevel;
+    private boolean snappy;
+    private int sampleRate;
+    private boolean authRequired;
+    private int outputBufferSize;
+    private long outputBufferTimeout;
+
+
+    public static NegotiatedFeatures parse(String response) {
+        if (null == response || !response.startsWith("{")) {
+            return NONE;
+        }
+        try {
+            var features = NSQUtil.fromJson(response, NegotiatedFeatures.class);
+            return null == features ? NONE : features;
+        } catch (JsonParseException e) {
+            log.warn("illegal IDENTIFY response: {}", response, e);
+            return NONE;
+        }
+    }
+
+    /**
+     * @return {@code rdy} within [0, max_rdy_count]
+     */
+    public int clampReady(int rdy) {
+        if (rdy < 0) {
+            return 0;
+        }
+        return maxRdyCount > 0 ? Math.min(rdy, maxRdyCount) : rdy;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public int getMaxRdyCount() {
+        return maxRdyCount;
+    }
+
+    public long getMaxMsgTimeout() {
+        return maxMsgTimeout;
+    }
+
+    /**
+     * @return milliseconds nsqd waits for FIN/REQ/TOUCH before it redelivers a message
+     */
+    public long getMsgTimeout() {
+        return msgTimeout;
+    }
+
+    public boolean isTlsV1() {
+        return tlsV1;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    public int getMaxDeflateLevel() {
+        return maxDeflateLevel;
+    }
+
+    public boolean isSnappy() {
+        return snappy;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean isAuthRequired() {
+        return authRequired;
+    }
+
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    public long getOutputBufferTimeout() {
+        return outputBufferTimeout;
+    }
+
+    @Override
+    public String toString() {
+        return "NegotiatedFeatures{version=" + version + ", maxRdyCount=" + maxRdyCount +
+                ", msgTimeout=" + msgTimeout + ", maxMsgTimeout=" + maxMsgTimeout +
+                ", tlsV1=" + tlsV1 + ", snappy=" + snappy + ", deflate=" + deflate +
+                ", deflateLevel=" + deflateLevel + ", sampleRate=" + sampleRate +
+                ", authRequired=" + authRequired + ", outputBufferSize=" + outputBufferSize +
+                ", outputBufferTimeout=" + outputBufferTimeout + '}';
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.cossbow.nsq;
+
+/**
+ * Token bucket refilled at a fixed rate up to a burst size. A consumer takes
+ * tokens for each message it receives and may go into debt; it then sets RDY 0
+ * until the debt is paid, so nothing is held back or requeued.
+ * <p>
+ * One instance may be shared by several consumers to cap them together.
+ */
+public class RateLimiter {
+
+    private final double permitsPerNano;
+    private final long burst;
+
+    private double tokens;
+    private long lastRefill;
+
+
+    /**
+     * @param permitsPerSecond messages or bytes per second
+     * @param burst            tokens that may be taken at once after an idle period
+     */
+    public RateLimiter(double permitsPerSecond, long burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("'permitsPerSecond' must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("'burst' must be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take tokens, even if there are not enough.
+     *
+     * @return nanoseconds until the bucket is out of debt, 0 if it is not in debt
+     */
+    public synchronized long acquire(long permits) {
+        refill();
+        tokens -= permits;
+        return debtNanos();
+    }
+
+    /**
+     * @return nanoseconds until the bucket is out of debt, 0 if it is not in debt
+     */
+    public synchronized long delayNanos() {
+        refill();
+        return debtNanos();
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerNano * 1e9;
+    }
+
+    private void refill() {
+        var now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+
+    private long debtNanos() {
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.lookup.NSQLookup;
+import com.github.cossbow.nsq.util.NSQUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Concurrency limit driven by nsqd's /stats: polls the depth, in-flight and deferred
+ * counts of a channel on every node of the topic, doubles the limit while the backlog
+ * is above {@link #setScaleUpDepth(long)} and shrinks it by a quarter once the channel
+ * is drained and the limit is not used, always within [min, max].
+ */
+public class StatsAutoscaler implements ConcurrencyLimit, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(StatsAutoscaler.class);
+
+    private final NSQLookup lookup;
+    private final String topic;
+    private final String channel;
+    private final int min;
+    private final int max;
+
+    private volatile int limit;
+    private volatile long scaleUpDepth = 1000;
+    private volatile long scaleDownDepth = 0;
+    private volatile ChannelStats stats = new ChannelStats(0, 0, 0, 0);
+    private volatile ScheduledFuture<?> pollFuture;
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+
+    public StatsAutoscaler(NSQLookup lookup, String topic, String channel, int min, int max) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("illegal autoscale bounds: " + min + ", " + max);
+        }
+        this.lookup = lookup;
+        this.topic = topic;
+        this.channel = channel;
+        this.min = min;
+        this.max = max;
+        this.limit = min;
+    }
+
+    /**
+     * Grow the limit while the depth summed over the nodes is above this.
+     */
+    public StatsAutoscaler setScaleUpDepth(long scaleUpDepth) {
+        this.scaleUpDepth = scaleUpDepth;
+        return this;
+    }
+
+    /**
+     * Shrink the limit while the depth is at most this and less than half of it is in flight.
+     */
+    public StatsAutoscaler setScaleDownDepth(long scaleDownDepth) {
+        this.scaleDownDepth = scaleDownDepth;
+        return this;
+    }
+
+    public synchronized StatsAutoscaler start(long periodMillis) {
+        if (null == pollFuture) {
+            pollFuture = NSQUtil.SCHEDULER.scheduleAtFixedRate(this::poll, 0, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        Optional.ofNullable(pollFuture).ifPresent(f -> f.cancel(false));
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    public ChannelStats getStats() {
+        return stats;
+    }
+
+    //
+
+    /**
+     * Runs on the shared scheduler, so it only starts the requests and applies the stats
+     * when they complete. A poll still running when the next one is due is skipped.
+     */
+    private void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lookup.lookupAsync(topic)
+                    .thenCompose(this::queryStats)
+                    .orTimeout(30, TimeUnit.SECONDS)
+                    .whenComplete((responses, e) -> {
+                        polling.set(false);
+                        if (null != e) {
+                            log.warn("autoscale {}[{}] poll failed", topic, channel, e);
+                        } else {
+                            update(sum(responses));
+                        }
+                    });
+        } catch (Throwable e) {
+            polling.set(false);
+            log.warn("autoscale {}[{}] poll failed", topic, channel, e);
+        }
+    }
+
+    private CompletableFuture<List<StatsResponse>> queryStats(Set<ServerAddress> addresses) {
+        var query = "/stats?format=json&topic=" + URLEncoder.encode(topic, StandardCharsets.UTF_8) +
+                "&channel=" + URLEncoder.encode(channel, StandardCharsets.UTF_8);
+        var it = addresses.stream()
+                .filter(address -> address.getHttpPort() > 0)
+                .map(address -> NSQUtil.get(address.httpAddress() + query, StatsResponse.class)
+                        .exceptionally(e -> {
+                            log.warn("query stats of {} failed: {}", address, e.getMessage());
+                            return null;
+                        }))
+                .iterator();
+        return NSQUtil.collectList(it);
+    }
+
+    ChannelStats sum(List<StatsResponse> responses) {
+        long depth = 0, inFlight = 0, deferred = 0;
+        int nodes = 0;
+        for (var response : responses) {
+            if (null == response) continue;
+            var body = null != response.data ? response.data : response;
+            if (null == body.topics) continue;
+            nodes++;
+            for (var t : body.topics) {
+                if (!topic.equals(t.topicName) || null == t.channels) continue;
+                for (var c : t.channels) {
+                    if (!channel.equals(c.channelName)) continue;
+                    depth += c.depth;
+                    inFlight += c.inFlightCount;
+                    deferred += c.deferredCount;
+                }
+            }
+        }
+        return new ChannelStats(depth, inFlight, deferred, nodes);
+    }
+
+    void update(ChannelStats stats) {
+        this.stats = stats;
+        var old = limit;
+        var n = old;
+        if (stats.getDepth() > scaleUpDepth) {
+            n = (int) Math.min(max, 2L * old);
+        } else if (stats.getDepth() <= scaleDownDepth && stats.getInFlight() < old / 2) {
+            n = Math.max(min, old - Math.max(1, old / 4));
+        }
+        if (n != old) {
+            limit = n;
+            log.info("autoscale {}[{}] limit {} -> {}, {}", topic, channel, old, n, stats);
+        }
+    }
+
+
+    public static class ChannelStats {
+        private final long depth;
+        private final long inFlight;
+        private final long deferred;
+        private final int nodes;
+
+        ChannelStats(long depth, long inFlight, long deferred, int nodes) {
+            this.depth = depth;
+            this.inFlight = inFlight;
+            this.deferred = deferred;
+            this.nodes = nodes;
+        }
+
+        public long getDepth() {
+            return depth;
+        }
+
+        public long getInFlight() {
+            return inFlight;
+        }
+
+        public long getDeferred() {
+            return deferred;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        @Override
+        public String toString() {
+            return "ChannelStats{depth=" + depth + ", inFlight=" + inFlight +
+                    ", deferred=" + deferred + ", nodes=" + nodes + '}';
+        }
+    }
+
+    // nsqd before 1.0 wraps the stats in "data"
+    static class StatsResponse {
+        StatsResponse data;
+        List<TopicStats> topics;
+    }
+
+    static class TopicStats {
+        String topicName;
+        List<ChannelStatsResponse> channels;
+    }
+
+    static class ChannelStatsResponse {
+        String channelName;
+        long depth;
+        long inFlightCount;
+        long deferredCount;
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.github.cossbow.nsq;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.kqueue.KQueue;
+import io.netty.channel.kqueue.KQueueEventLoopGroup;
+import io.netty.channel.kqueue.KQueueSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Netty transport of the connections. {@link #IO_URING} needs the
+ * {@code netty-incubator-transport-native-io_uring} module on the classpath and a kernel
+ * supporting it, it is loaded reflectively so the client works without it. A transport
+ * which is not available falls back to the best one that is, see {@link #select(Transport)}.
+ */
+public enum Transport {
+
+    /**
+     * The first available of io_uring, epoll, kqueue and NIO.
+     */
+    AUTO,
+
+    IO_URING,
+
+    EPOLL,
+
+    KQUEUE,
+
+    NIO,
+
+    ;
+
+    private static final Logger log = LoggerFactory.getLogger(Transport.class);
+
+    // transports a fallback has been logged for
+    private static final Set<Transport> fallbackLogged = ConcurrentHashMap.newKeySet();
+
+    private static final String IO_URING_PACKAGE = "io.netty.incubator.channel.uring.";
+    private static final Class<? extends Channel> IO_URING_CHANNEL;
+    private static final Constructor<? extends EventLoopGroup> IO_URING_GROUP;
+    private static final String IO_URING_UNAVAILABLE;
+
+    static {
+        Class<? extends Channel> channel = null;
+        Constructor<? extends EventLoopGroup> group = null;
+        String unavailable = null;
+        try {
+            var available = (Boolean) Class.forName(IO_URING_PACKAGE + "IOUring")
+                    .getMethod("isAvailable").invoke(null);
+            if (available) {
+                channel = Class.forName(IO_URING_PACKAGE + "IOUringSocketChannel").asSubclass(Channel.class);
+                group = Class.forName(IO_URING_PACKAGE + "IOUringEventLoopGroup").asSubclass(EventLoopGroup.class)
+                        .getConstructor(int.class, ThreadFactory.class);
+            } else {
+                unavailable = "io_uring is not supported by this kernel";
+            }
+        } catch (ClassNotFoundException | NoClassDefFoundError ignored) {
+            unavailable = "netty-incubator-transport-native-io_uring is not on the classpath";
+        } catch (Throwable e) {
+            log.warn("io_uring transport can not be loaded", e);
+            channel = null;
+            group = null;
+            unavailable = "io_uring transport can not be loaded: " + e;
+        }
+        IO_URING_CHANNEL = channel;
+        IO_URING_GROUP = group;
+        IO_URING_UNAVAILABLE = unavailable;
+    }
+
+
+    public boolean isAvailable() {
+        switch (this) {
+            case IO_URING:
+                return null != IO_URING_GROUP;
+            case EPOLL:
+                return isAvailable("io.netty.channel.epoll.Epoll") && Epoll.isAvailable();
+            case KQUEUE:
+                return isAvailable("io.netty.channel.kqueue.KQueue") && KQueue.isAvailable();
+            case NIO:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if this is {@link #IO_URING} and it is not available
+     */
+    public Class<? extends Channel> socketChannel() {
+        switch (this) {
+            case IO_URING:
+                checkIoUring();
+                return IO_URING_CHANNEL;
+            case EPOLL:
+                return EpollSocketChannel.class;
+            case KQUEUE:
+                return KQueueSocketChannel.class;
+            case NIO:
+                return NioSocketChannel.class;
+            default:
+                return select(this).socketChannel();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if this is {@link #IO_URING} and it is not available
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        switch (this) {
+            case IO_URING:
+                checkIoUring();
+                try {
+                    return IO_URING_GROUP.newInstance(threads, threadFactory);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("create io_uring event loop group", e);
+                }
+            case EPOLL:
+                return new EpollEventLoopGroup(threads, threadFactory);
+            case KQUEUE:
+                return new KQueueEventLoopGroup(threads, threadFactory);
+            case NIO:
+                return new NioEventLoopGroup(threads, threadFactory);
+            default:
+                return select(this).newEventLoopGroup(threads, threadFactory);
+        }
+    }
+
+    private static void checkIoUring() {
+        if (null != IO_URING_UNAVAILABLE) {
+            throw new IllegalStateException(IO_URING_UNAVAILABLE + ", see Transport.select");
+        }
+    }
+
+    //
+
+    /**
+     * @return {@code preferred} if available, otherwise the first available of
+     * io_uring, epoll, kqueue and NIO
+     */
+    public static Transport select(Transport preferred) {
+        if (null != preferred && preferred.isAvailable()) {
+            return preferred;
+        }
+        if (null != preferred && AUTO != preferred && fallbackLogged.add(preferred)) {
+            log.warn("transport {} is not available, falling back", preferred);
+        }
+        for (var t : values()) {
+            if (t.isAvailable()) {
+                return t;
+            }
+        }
+        return NIO;
+    }
+
+    /**
+     * @return the transport the channels of {@code group} have to use
+     */
+    public static Transport of(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EPOLL;
+        }
+        if (group instanceof KQueueEventLoopGroup) {
+            return KQUEUE;
+        }
+        if (null != IO_URING_GROUP && IO_URING_GROUP.getDeclaringClass().isInstance(group)) {
+            return IO_URING;
+        }
+        return NIO;
+    }
+
+    private static boolean isAvailable(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException | NoClassDefFoundError ignored) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.github.cossbow.nsq;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Socket option presets, see {@link NSQConfig#setTransportProfile(TransportProfile)}.
+ * A profile only sets the transport options of the config, each of them can still be
+ * changed afterwards.
+ */
+public enum TransportProfile {
+
+    /**
+     * Small commands leave at once, socket buffers are left to the OS and little
+     * output may queue up in a channel.
+     */
+    LATENCY(null, 8 * 1024, 32 * 1024, 3_000),
+
+    /**
+     * Large socket buffers and a deep outbound queue, for bulk publishing.
+     */
+    THROUGHPUT(1 << 20, 256 * 1024, 1 << 20, 10_000),
+
+    ;
+
+    private final Integer socketBufferSize;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final int connectTimeoutMillis;
+
+    TransportProfile(Integer socketBufferSize, int lowWaterMark, int highWaterMark, int connectTimeoutMillis) {
+        this.socketBufferSize = socketBufferSize;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    void applyTo(NSQConfig config) {
+        config.setTcpNoDelay(true);
+        config.setReceiveBufferSize(socketBufferSize);
+        config.setSendBufferSize(socketBufferSize);
+        config.setWriteBufferWaterMark(lowWaterMark, highWaterMark);
+        config.setConnectTimeoutMillis(connectTimeoutMillis);
+        config.setAllocator(PooledByteBufAllocator.DEFAULT);
+    }
+
+}
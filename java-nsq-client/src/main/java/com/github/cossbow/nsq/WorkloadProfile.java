@@ -0,0 +1,79 @@
+package com.github.cossbow.nsq;
+
+/**
+ * Presets of what nsqd buffers before it writes to a consumer, the heartbeat, messages
+ * in flight and how writes are flushed, see {@link NSQConfig#setWorkloadProfile(WorkloadProfile)}.
+ * Values left null mean the defaults: a 16KB output buffer flushed every 250ms and a
+ * 30s heartbeat from nsqd, and the consumer's concurrency in flight. Applying a profile
+ * sets all of them, so the result does not depend on what was applied before.
+ */
+public enum WorkloadProfile {
+
+    /**
+     * Sparse topics: nsqd writes every message at once instead of waiting for the
+     * output buffer timeout, and every flush goes out.
+     */
+    LOW_LATENCY(null, -1, 10_000, null, 0, false),
+
+    /**
+     * nsqd's buffering, flushes are only merged while reading.
+     */
+    BALANCED(null, null, null, null, 256, false),
+
+    /**
+     * Dense topics: a large output buffer, many messages in flight and flushes merged
+     * even outside reads, so FIN/RDY bursts share syscalls.
+     */
+    HIGH_THROUGHPUT(64 * 1024, 250, null, 500, 256, true),
+
+    ;
+
+    /**
+     * Messages per second on a consumer above which {@link #forRate(double)} picks
+     * {@link #HIGH_THROUGHPUT}, below a tenth of it {@link #LOW_LATENCY}.
+     */
+    public static final double HIGH_RATE = 1000;
+
+    private final Integer outputBufferSize;
+    private final Integer outputBufferTimeout;
+    private final Integer heartbeatInterval;
+    private final Integer maxInFlight;
+    private final int flushConsolidation;
+    private final boolean consolidateWhenNoReadInProgress;
+
+    WorkloadProfile(Integer outputBufferSize, Integer outputBufferTimeout, Integer heartbeatInterval,
+                    Integer maxInFlight, int flushConsolidation, boolean consolidateWhenNoReadInProgress) {
+        this.outputBufferSize = outputBufferSize;
+        this.outputBufferTimeout = outputBufferTimeout;
+        this.heartbeatInterval = heartbeatInterval;
+        this.maxInFlight = maxInFlight;
+        this.flushConsolidation = flushConsolidation;
+        this.consolidateWhenNoReadInProgress = consolidateWhenNoReadInProgress;
+    }
+
+    void applyTo(NSQConfig config) {
+        applyBuffering(config);
+        config.setHeartbeatInterval(heartbeatInterval);
+        config.setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Only what is negotiated per connection, so it can change on reconnect.
+     */
+    void applyBuffering(NSQConfig config) {
+        config.setOutputBufferSize(outputBufferSize);
+        config.setOutputBufferTimeout(outputBufferTimeout);
+        config.setFlushConsolidation(flushConsolidation, consolidateWhenNoReadInProgress);
+    }
+
+    public static WorkloadProfile forRate(double messagesPerSecond) {
+        if (messagesPerSecond >= HIGH_RATE) {
+            return HIGH_THROUGHPUT;
+        }
+        if (messagesPerSecond < HIGH_RATE / 10) {
+            return LOW_LATENCY;
+        }
+        return BALANCED;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.github.cossbow.nsq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Per-thread free lists of {@link Deflater}/{@link Inflater}, so a deflated body does not
+ * allocate a native zlib context and leave it to finalization. A stream takes one when it
+ * is opened and returns it reset when closed, so streams open at the same time never share
+ * one; a stream that is never closed leaves its codec to the GC as before.
+ */
+final class ZlibPool {
+
+    private static final int MAX_IDLE = 4;
+
+    private static final ThreadLocal<ArrayDeque<Deflater>> DEFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<ArrayDeque<Inflater>> INFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+
+    private ZlibPool() {
+    }
+
+    static OutputStream deflate(OutputStream out) {
+        var pooled = DEFLATERS.get().poll();
+        var deflater = null != pooled ? pooled : new Deflater();
+        return new DeflaterOutputStream(out, deflater) {
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!released) {
+                        released = true;
+                        deflater.reset();
+                        release(DEFLATERS.get(), deflater, Deflater::end);
+                    }
+                }
+            }
+        };
+    }
+
+    static InputStream inflate(InputStream in) {
+        var pooled = INFLATERS.get().poll();
+        var inflater = null != pooled ? pooled : new Inflater();
+        return new InflaterInputStream(in, inflater) {
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!released) {
+                        released = true;
+                        inflater.reset();
+                        release(INFLATERS.get(), inflater, Inflater::end);
+                    }
+                }
+            }
+        };
+    }
+
+    private static <C> void release(ArrayDeque<C> idle, C codec, Consumer<C> end) {
+        if (idle.size() < MAX_IDLE) {
+            idle.push(codec);
+        } else {
+            end.accept(codec);
+        }
+    }
+
+    // for tests
+    static int idleDeflaters() {
+        return DEFLATERS.get().size();
+    }
+
+    static int idleInflaters() {
+        return INFLATERS.get().size();
+    }
+
+}
@@ -1,21 +1,49 @@
 package com.github.cossbow.nsq.frames;
 
 import com.github.cossbow.nsq.CompressType;
+import com.github.cossbow.nsq.MessageId;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 
-import java.nio.charset.StandardCharsets;
-
 public class MessageFrame extends NSQFrame {
-    private static final short MESSAGE_ID_SIZE = 16;
+    private static final Recycler<MessageFrame> RECYCLER = new Recycler<>() {
+        @Override
+        protected MessageFrame newObject(Handle<MessageFrame> handle) {
+            return new MessageFrame(handle);
+        }
+    };
+
+    private final Recycler.Handle<MessageFrame> handle;
 
     private long timestamp;
     private int attempts;
     private CompressType compress;
-    private CharSequence id;
+    private MessageId id;
 
     private ByteBuf messageBodyBuf;
 
+    private MessageFrame(Recycler.Handle<MessageFrame> handle) {
+        this.handle = handle;
+    }
+
+    public static MessageFrame newInstance() {
+        return RECYCLER.get();
+    }
+
+    /**
+     * Return to the pool once the body has been handed over to a message.
+     */
+    public void recycle() {
+        timestamp = 0;
+        attempts = 0;
+        compress = null;
+        id = null;
+        messageBodyBuf = null;
+        setSize(0);
+        handle.recycle(this);
+    }
+
 
     public long getTimestamp() {
         return timestamp;
@@ -29,7 +57,7 @@ public class MessageFrame extends NSQFrame {
         return compress;
     }
 
-    public CharSequence getId() {
+    public MessageId getId() {
         return id;
     }
 
@@ -40,15 +68,22 @@ public class MessageFrame extends NSQFrame {
     @Override
     public void setBuf(ByteBuf buf) {
         try {
-            timestamp = buf.readLong();
-            attempts = buf.readShort();
-            compress = CompressType.valueOf(buf.readByte(), CompressType.Non);
-            id = buf.readCharSequence(MESSAGE_ID_SIZE, StandardCharsets.US_ASCII);
-            messageBodyBuf = buf.readBytes(buf.readableBytes());
+            readFrom(buf, buf.readableBytes());
         } finally {
             ReferenceCountUtil.safeRelease(buf);
         }
     }
 
+    /**
+     * Parse the header in place and keep a retained slice of the body, without copying.
+     */
+    public void readFrom(ByteBuf in, int length) {
+        var end = in.readerIndex() + length;
+        timestamp = in.readLong();
+        attempts = in.readShort();
+        compress = CompressType.valueOf(in.readByte(), CompressType.Non);
+        id = MessageId.read(in);
+        messageBodyBuf = in.readRetainedSlice(end - in.readerIndex());
+    }
 
 }
@@ -19,7 +19,7 @@ public abstract class NSQFrame {
             case 1:
                 return new ErrorFrame();
             case 2:
-                return new MessageFrame();
+                return MessageFrame.newInstance();
         }
         return null;
     }
@@ -2,10 +2,29 @@ package com.github.cossbow.nsq.frames;
 
 public class ResponseFrame extends NSQFrame {
 
+    /**
+     * Well-known responses, recognised by their bytes and shared, so they cost no allocation.
+     */
+    public static final ResponseFrame OK = new ResponseFrame("OK");
+    public static final ResponseFrame HEARTBEAT = new ResponseFrame("_heartbeat_");
+    public static final ResponseFrame CLOSE_WAIT = new ResponseFrame("CLOSE_WAIT");
+
+    public ResponseFrame() {
+    }
+
+    private ResponseFrame(String message) {
+        this.string = message;
+        setSize(Integer.BYTES + message.length());
+    }
+
     public String getMessage() {
         return readData();
     }
 
+    public boolean isHeartbeat() {
+        return this == HEARTBEAT || HEARTBEAT.string.equals(getMessage());
+    }
+
     public String toString() {
         return "RESPONSE: " + this.getMessage();
     }
@@ -0,0 +1,87 @@
+package com.github.cossbow.nsq.lookup;
+
+import com.github.cossbow.nsq.ServerAddress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Picks the nodes a consumer instance connects to by rendezvous (highest random weight)
+ * hashing: each node is scored by hash(instance, node) and the top {@code size} win.
+ * The choice only depends on the instance id and the node set, so every instance picks
+ * its own subset without coordination, and a node joining or leaving changes at most
+ * one node of each subset.
+ * <p>
+ * Subsets are independent, so a node is left without consumers with probability
+ * (1 - size / nodes) ^ instances; use {@link #sizeFor(int, int, double)} to keep that small.
+ */
+public class RendezvousSubset {
+
+    private final long seed;
+    private final int size;
+
+
+    public RendezvousSubset(String instanceId, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("'size' must be positive");
+        }
+        this.seed = hash(instanceId);
+        this.size = size;
+    }
+
+    public Set<ServerAddress> select(Set<ServerAddress> nodes) {
+        if (nodes.size() <= size) {
+            return nodes;
+        }
+        var scored = new ArrayList<ServerAddress>(nodes);
+        scored.sort(Comparator.comparingLong(this::score).reversed());
+        return new HashSet<>(scored.subList(0, size));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    private long score(ServerAddress node) {
+        return mix(seed ^ hash(node.getHost() + ':' + node.getPort()));
+    }
+
+    /**
+     * @return the smallest subset size for which a node is left without consumers
+     * with probability at most {@code missProbability}
+     */
+    public static int sizeFor(int nodes, int instances, double missProbability) {
+        if (nodes <= 0 || instances <= 0) {
+            throw new IllegalArgumentException("'nodes' and 'instances' must be positive");
+        }
+        if (missProbability <= 0 || missProbability >= 1) {
+            throw new IllegalArgumentException("'missProbability' must be in (0, 1)");
+        }
+        var fraction = 1 - Math.pow(missProbability, 1.0 / instances);
+        return (int) Math.min(nodes, Math.max(1, Math.ceil(nodes * fraction)));
+    }
+
+    //
+
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (var b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
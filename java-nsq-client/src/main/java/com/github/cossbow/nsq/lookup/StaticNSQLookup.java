@@ -0,0 +1,57 @@
+package com.github.cossbow.nsq.lookup;
+
+import com.github.cossbow.nsq.ServerAddress;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup over a fixed list of nsqd addresses, for deployments without nsqlookupd.
+ * Every topic is served by every address.
+ */
+public class StaticNSQLookup implements NSQLookup {
+
+    private final Set<ServerAddress> addresses = ConcurrentHashMap.newKeySet();
+
+    public StaticNSQLookup() {
+    }
+
+    public StaticNSQLookup(Collection<ServerAddress> addresses) {
+        this.addresses.addAll(addresses);
+    }
+
+    @Override
+    public Set<ServerAddress> lookup(String topic) {
+        return new HashSet<>(addresses);
+    }
+
+    @Override
+    public CompletableFuture<Set<ServerAddress>> lookupAsync(String topic) {
+        return CompletableFuture.completedFuture(lookup(topic));
+    }
+
+    @Override
+    public CompletableFuture<Set<ServerAddress>> lookupNodeAsync() {
+        return CompletableFuture.completedFuture(new HashSet<>(addresses));
+    }
+
+    /**
+     * Add a nsqd TCP address.
+     */
+    @Override
+    public void addLookupAddress(String addr, int port) {
+        addresses.add(new ServerAddress(addr, port));
+    }
+
+    public void addAddress(ServerAddress address) {
+        addresses.add(address);
+    }
+
+    public void removeAddress(ServerAddress address) {
+        addresses.remove(address);
+    }
+
+}
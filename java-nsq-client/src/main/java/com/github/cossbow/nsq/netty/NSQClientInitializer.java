@@ -3,17 +3,36 @@ package com.github.cossbow.nsq.netty;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 
 public class NSQClientInitializer extends ChannelInitializer<SocketChannel> {
+
+    private final int flushConsolidation;
+    private final boolean consolidateWhenNoReadInProgress;
+
+    public NSQClientInitializer() {
+        this(0, false);
+    }
+
+    /**
+     * @param flushConsolidation see {@link FlushConsolidationHandler}, 0 for none
+     */
+    public NSQClientInitializer(int flushConsolidation, boolean consolidateWhenNoReadInProgress) {
+        this.flushConsolidation = flushConsolidation;
+        this.consolidateWhenNoReadInProgress = consolidateWhenNoReadInProgress;
+    }
+
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
-        LengthFieldBasedFrameDecoder dec = new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, Integer.BYTES);
+        if (flushConsolidation > 0) {
+            pipeline.addLast("FlushConsolidation",
+                    new FlushConsolidationHandler(flushConsolidation, consolidateWhenNoReadInProgress));
+        }
+        NSQDecoder dec = new NSQDecoder();
         dec.setSingleDecode(true);
 
-        pipeline.addLast("LengthFieldBasedFrameDecoder", dec);
-        pipeline.addLast("NSQDecoder", new NSQDecoder()); // in
+        pipeline.addLast("NSQDecoder", dec); // in
         pipeline.addLast("NSQEncoder", new NSQEncoder()); // out
         pipeline.addLast("FeatureDetectionHandler", new NSQFeatureDetectionHandler());
         pipeline.addLast("NSQHandler", new NSQHandler()); // in
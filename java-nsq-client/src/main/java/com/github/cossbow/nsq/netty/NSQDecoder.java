@@ -1,33 +1,92 @@
 package com.github.cossbow.nsq.netty;
 
+import com.github.cossbow.nsq.frames.MessageFrame;
 import com.github.cossbow.nsq.frames.NSQFrame;
+import com.github.cossbow.nsq.frames.ResponseFrame;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
-public class NSQDecoder extends MessageToMessageDecoder<ByteBuf> {
+/**
+ * Frames and decodes in one pass: the size, type and message header are parsed in place
+ * and a message body is a retained slice of the received bytes, nothing is copied.
+ * Well-known responses map to shared frames, a String is only built for other ones.
+ */
+public class NSQDecoder extends ByteToMessageDecoder {
 
-    private int size;
-    private NSQFrame frame;
+    private static final int FRAME_TYPE_RESPONSE = 0;
+
+    private static final ResponseFrame[] KNOWN_RESPONSES = {
+            ResponseFrame.OK, ResponseFrame.HEARTBEAT, ResponseFrame.CLOSE_WAIT,
+    };
+    private static final ByteBuf[] KNOWN_RESPONSE_BYTES = Arrays.stream(KNOWN_RESPONSES)
+            .map(frame -> Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(frame.getMessage(), StandardCharsets.US_ASCII)))
+            .toArray(ByteBuf[]::new);
 
     public NSQDecoder() {
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        size = in.readInt();
+        if (in.readableBytes() < Integer.BYTES) {
+            return;
+        }
+        var size = in.getInt(in.readerIndex());
+        if (size < Integer.BYTES) {
+            throw new CorruptedFrameException("Bad frame size from server (" + size + ").  disconnect!");
+        }
+        if (in.readableBytes() < Integer.BYTES + size) {
+            return;
+        }
+        in.skipBytes(Integer.BYTES);
         int id = in.readInt();
-        frame = NSQFrame.instance(id);
+        var length = size - Integer.BYTES; //subtract 4 because the frame id is included
+        if (FRAME_TYPE_RESPONSE == id) {
+            var known = knownResponse(in, length);
+            if (null != known) {
+                in.skipBytes(length);
+                out.add(known);
+                return;
+            }
+        }
+        var frame = NSQFrame.instance(id);
         if (frame == null) {
             //uhh, bad response from server..  what should we do?
             throw new Exception("Bad frame id from server (" + id + ").  disconnect!");
         }
         frame.setSize(size);
-        var bytes = in.readBytes(frame.getSize() - 4); //subtract 4 because the frame id is included
-        frame.setBuf(bytes);
+        if (frame instanceof MessageFrame) {
+            ((MessageFrame) frame).readFrom(in, length);
+        } else {
+            frame.setBuf(in.readRetainedSlice(length));
+        }
         out.add(frame);
     }
 
+    private static ResponseFrame knownResponse(ByteBuf in, int length) {
+        for (int i = 0; i < KNOWN_RESPONSES.length; i++) {
+            var bytes = KNOWN_RESPONSE_BYTES[i];
+            if (bytes.readableBytes() == length && ByteBufUtil.equals(in, in.readerIndex(), bytes, 0, length)) {
+                return KNOWN_RESPONSES[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take the bytes received but not decoded yet, which belong to a handler just
+     * inserted in front of this one, such as TLS or decompression.
+     */
+    ByteBuf takeBuffered() {
+        var buf = internalBuffer();
+        return buf.isReadable() ? buf.readBytes(buf.readableBytes()) : Unpooled.EMPTY_BUFFER;
+    }
+
 }
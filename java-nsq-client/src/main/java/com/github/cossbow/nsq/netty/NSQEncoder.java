@@ -10,7 +10,6 @@ public class NSQEncoder extends MessageToMessageEncoder<NSQCommand> {
 
     @Override
     protected void encode(ChannelHandlerContext ctx, NSQCommand message, List<Object> out) throws Exception {
-        var buf = message.getBuf();
-        out.add(buf);
+        out.add(message.encode(ctx.alloc()));
     }
 }
@@ -1,12 +1,13 @@
 package com.github.cossbow.nsq.netty;
 
 import com.github.cossbow.nsq.Connection;
+import com.github.cossbow.nsq.NegotiatedFeatures;
 import com.github.cossbow.nsq.frames.NSQFrame;
 import com.github.cossbow.nsq.frames.ResponseFrame;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.compression.SnappyFrameDecoder;
 import io.netty.handler.codec.compression.SnappyFrameEncoder;
 import io.netty.handler.codec.compression.ZlibCodecFactory;
@@ -26,16 +27,16 @@ public class NSQFeatureDetectionHandler extends SimpleChannelInboundHandler<NSQF
     private boolean snappy;
     private boolean deflate;
     private boolean finished;
+    private String inserted;
 
     @Override
     protected void channelRead0(final ChannelHandlerContext ctx, final NSQFrame msg) throws Exception {
-        log.info("IdentifyResponse: {}", msg.readData());
-        boolean reinstallDefaultDecoder = true;
+        log.info("IdentifyResponse: {}", msg);
         if (msg instanceof ResponseFrame) {
             ResponseFrame response = (ResponseFrame) msg;
             ChannelPipeline pipeline = ctx.channel().pipeline();
             final Connection con = ctx.channel().attr(Connection.STATE).get();
-            parseIdentify(response.getMessage());
+            parseIdentify(response.getMessage(), con);
 
             if (response.getMessage().equals("OK")) {
                 if (finished) {
@@ -43,15 +44,16 @@ public class NSQFeatureDetectionHandler extends SimpleChannelInboundHandler<NSQF
                 }
                 //round 2
                 if (snappy) {
-                    reinstallDefaultDecoder = installSnappyDecoder(pipeline);
+                    installSnappyDecoder(pipeline);
                 }
                 if (deflate) {
-                    reinstallDefaultDecoder = installDeflateDecoder(pipeline, con);
+                    installDeflateDecoder(pipeline, con);
                 }
-                eject(reinstallDefaultDecoder, pipeline);
+                eject(pipeline);
                 if (ssl) {
                     ((SslHandler) pipeline.get("SSLHandler")).setSingleDecode(false);
                 }
+                refire(pipeline);
                 return;
             }
             if (ssl) {
@@ -60,7 +62,8 @@ public class NSQFeatureDetectionHandler extends SimpleChannelInboundHandler<NSQF
                 sslEngine.setUseClientMode(true);
                 SslHandler sslHandler = new SslHandler(sslEngine, false);
                 sslHandler.setSingleDecode(true);
-                pipeline.addBefore("LengthFieldBasedFrameDecoder", "SSLHandler", sslHandler);
+                pipeline.addBefore("NSQDecoder", "SSLHandler", sslHandler);
+                inserted = "SSLHandler";
                 if (snappy) {
                     pipeline.addBefore("NSQEncoder", "SnappyEncoder", new SnappyFrameEncoder());
                 }
@@ -71,59 +74,69 @@ public class NSQFeatureDetectionHandler extends SimpleChannelInboundHandler<NSQF
             }
             if (!ssl && snappy) {
                 pipeline.addBefore("NSQEncoder", "SnappyEncoder", new SnappyFrameEncoder());
-                reinstallDefaultDecoder = installSnappyDecoder(pipeline);
+                installSnappyDecoder(pipeline);
             }
             if (!ssl && deflate) {
                 pipeline.addBefore("NSQEncoder", "DeflateEncoder", ZlibCodecFactory.newZlibEncoder(ZlibWrapper.NONE,
                         con.getConfig().getDeflateLevel()));
-                reinstallDefaultDecoder = installDeflateDecoder(pipeline, con);
+                installDeflateDecoder(pipeline, con);
             }
             if (response.getMessage().contains("version") && finished) {
-                eject(reinstallDefaultDecoder, pipeline);
+                eject(pipeline);
             }
+            ctx.fireChannelRead(msg);
+            refire(pipeline);
+            return;
         }
         ctx.fireChannelRead(msg);
     }
 
-    private void eject(final boolean reinstallDefaultDecoder, final ChannelPipeline pipeline) {
+    /**
+     * Bytes after the response may have been read already, they belong to the handler
+     * just inserted in front of the decoder, so pass them through it.
+     */
+    private void refire(final ChannelPipeline pipeline) throws Exception {
+        if (null == inserted) {
+            return;
+        }
+        var handlerCtx = pipeline.context(inserted);
+        inserted = null;
+        var leftover = ((NSQDecoder) pipeline.get("NSQDecoder")).takeBuffered();
+        if (leftover.isReadable()) {
+            ((ChannelInboundHandler) handlerCtx.handler()).channelRead(handlerCtx, leftover);
+        }
+    }
+
+    private void eject(final ChannelPipeline pipeline) {
         // ok we read only the the first message to set up the pipline, ejecting now!
         pipeline.remove(this);
-        if (reinstallDefaultDecoder) {
-            log.info("reinstall LengthFieldBasedFrameDecoder");
-            pipeline.replace("LengthFieldBasedFrameDecoder", "LengthFieldBasedFrameDecoder",
-                    new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, Integer.BYTES));
-        }
+        ((NSQDecoder) pipeline.get("NSQDecoder")).setSingleDecode(false);
     }
 
-    private boolean installDeflateDecoder(final ChannelPipeline pipeline, final Connection con) {
+    private void installDeflateDecoder(final ChannelPipeline pipeline, final Connection con) {
         finished = true;
         log.info("Adding deflate to pipline");
-        pipeline.replace("LengthFieldBasedFrameDecoder", "DeflateDecoder", ZlibCodecFactory.newZlibDecoder(ZlibWrapper.NONE));
-        return false;
+        pipeline.addBefore("NSQDecoder", "DeflateDecoder", ZlibCodecFactory.newZlibDecoder(ZlibWrapper.NONE));
+        inserted = "DeflateDecoder";
     }
 
-    private boolean installSnappyDecoder(final ChannelPipeline pipeline) {
+    private void installSnappyDecoder(final ChannelPipeline pipeline) {
         finished = true;
         log.info("Adding snappy to pipline");
-        pipeline.replace("LengthFieldBasedFrameDecoder", "SnappyDecoder", new SnappyFrameDecoder());
-        return false;
+        pipeline.addBefore("NSQDecoder", "SnappyDecoder", new SnappyFrameDecoder());
+        inserted = "SnappyDecoder";
     }
 
-    private void parseIdentify(final String message) {
+    private void parseIdentify(final String message, final Connection con) {
         if (message.equals("OK")) {
             return;
         }
-        if (message.contains("\"tls_v1\":true")) {
-            ssl = true;
-        }
-        if (message.contains("\"snappy\":true")) {
-            snappy = true;
-            compression = true;
-        }
-        if (message.contains("\"deflate\":true")) {
-            deflate = true;
-            compression = true;
-        }
+        var features = NegotiatedFeatures.parse(message);
+        con.setFeatures(features);
+        ssl = features.isTlsV1();
+        snappy = features.isSnappy();
+        deflate = features.isDeflate();
+        compression = snappy || deflate;
         if (!ssl && !compression) {
             finished = true;
         }
@@ -8,6 +8,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+/**
+ * Passes every frame to its {@link Connection} inline on the channel's event loop, so the
+ * frames of a connection are handled one at a time and in the order nsqd sent them.
+ * Messages keep that order up to the consumer's executor, callbacks only run in order
+ * if it is single-threaded.
+ */
 public class NSQHandler extends SimpleChannelInboundHandler<NSQFrame> {
     private final static Logger log= LoggerFactory.getLogger(NSQHandler.class);
 
@@ -17,6 +23,7 @@ public class NSQHandler extends SimpleChannelInboundHandler<NSQFrame> {
         Connection connection = ctx.channel().attr(Connection.STATE).get();
         if (connection != null) {
             log.info("Channel disconnected! " + connection);
+            connection.disconnected();
         } else {
             log.error("No connection set for : " + ctx.channel());
         }
@@ -40,13 +47,11 @@ public class NSQHandler extends SimpleChannelInboundHandler<NSQFrame> {
     protected void channelRead0(ChannelHandlerContext ctx, NSQFrame msg) throws Exception {
         final Connection con = ctx.channel().attr(Connection.STATE).get();
         if (con != null) {
-            ctx.channel().eventLoop().execute(() -> {
-                try {
-                    con.incoming(msg);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            });
+            try {
+                con.incoming(msg);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         } else {
             log.warn("No connection set for : " + ctx.channel());
         }
@@ -0,0 +1,285 @@
+package com.github.cossbow.nsq.util;
+
+import com.github.cossbow.nsq.ConcurrencyLimit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker pool shared by several consumers, serving one queue per lane with
+ * deficit round robin. A backlogged lane is guaranteed weight / total weight of
+ * the dispatches, so a flood on one lane cannot starve the others.
+ * <p>
+ * A lane is also a {@link ConcurrencyLimit}: setting it on the consumer makes
+ * RDY follow the share of workers the lane currently gets. The shares are
+ * recomputed when a lane turns busy or idle, reading one takes no lock.
+ * <p>
+ * With a minimum share, a backlogged lane running fewer tasks than it is served
+ * first, so a lane with a small weight is not stuck behind long tasks of a heavy one.
+ */
+public class FairScheduler {
+    private static final Logger log = LoggerFactory.getLogger(FairScheduler.class);
+
+    private final int threads;
+    private final int minShare;
+    private final List<Lane> lanes = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int cursor = 0;
+    private volatile boolean shutdown = false;
+
+
+    public FairScheduler(int threads) {
+        this(threads, 0);
+    }
+
+    /**
+     * The workers are daemon threads, they do not keep the JVM running.
+     *
+     * @param minShare workers each busy lane gets whatever its weight, at most {@code threads}
+     */
+    public FairScheduler(int threads, int minShare) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("'threads' must be positive");
+        }
+        if (minShare < 0 || minShare > threads) {
+            throw new IllegalArgumentException("'minShare' must be in [0, threads]");
+        }
+        this.threads = threads;
+        this.minShare = minShare;
+
+        var group = Thread.currentThread().getThreadGroup();
+        var threadNumber = new AtomicInteger(1);
+        for (int i = 0; i < threads; i++) {
+            var t = new Thread(group, this::work, "com.github.cossbow.nsq-fair-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * @param weight relative share of the workers when lanes compete
+     */
+    public Lane newLane(String name, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("'weight' must be positive");
+        }
+        var lane = new Lane(name, weight);
+        lock.lock();
+        try {
+            lanes.add(lane);
+            updateShares();
+        } finally {
+            lock.unlock();
+        }
+        return lane;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMinShare() {
+        return minShare;
+    }
+
+    /**
+     * Stop the workers once the queued tasks have run.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            Runnable task;
+            lock.lock();
+            try {
+                while (null == (lane = nextLane())) {
+                    if (shutdown) return;
+                    notEmpty.await();
+                }
+                task = lane.queue.poll();
+                lane.running++;
+                if (lane.closed && lane.queue.isEmpty()) {
+                    removeLane(lane);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("lane " + lane.name + " task error", e);
+            } finally {
+                lock.lock();
+                try {
+                    lane.running--;
+                    refresh(lane);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void removeLane(Lane lane) {
+        lanes.remove(lane);
+        cursor = lanes.isEmpty() ? 0 : cursor % lanes.size();
+        updateShares();
+    }
+
+    /**
+     * Recompute the shares if the lane turned busy or idle. Must hold the lock.
+     */
+    private void refresh(Lane lane) {
+        var busy = lane.running > 0 || !lane.queue.isEmpty();
+        if (busy != lane.busy) {
+            lane.busy = busy;
+            updateShares();
+        }
+    }
+
+    private void updateShares() {
+        int busyWeight = 0;
+        for (var lane : lanes) {
+            if (lane.busy) busyWeight += lane.weight;
+        }
+        for (var lane : lanes) {
+            // a lane shares with the busy ones as if it were busy too
+            var total = lane.busy ? busyWeight : busyWeight + lane.weight;
+            lane.limit = Math.max(Math.max(1, minShare), threads * lane.weight / total);
+        }
+    }
+
+    /**
+     * Lanes below the minimum share first, then deficit round robin with a cost
+     * of one per task. Must hold the lock.
+     */
+    private Lane nextLane() {
+        int n = lanes.size();
+        if (n == 0) {
+            return null;
+        }
+        if (minShare > 0) {
+            for (int i = 0; i < n; i++) {
+                var index = (cursor + i) % n;
+                var lane = lanes.get(index);
+                if (lane.running < minShare && !lane.queue.isEmpty()) {
+                    // the lanes after it go first next time
+                    cursor = (index + 1) % n;
+                    return lane;
+                }
+            }
+        }
+        for (int i = 0; i <= 2 * n; i++) {
+            var lane = lanes.get(cursor);
+            if (!lane.queue.isEmpty() && lane.deficit > 0) {
+                lane.deficit--;
+                return lane;
+            }
+            if (lane.queue.isEmpty()) {
+                lane.deficit = 0;
+            }
+            cursor = (cursor + 1) % n;
+            var next = lanes.get(cursor);
+            if (!next.queue.isEmpty()) {
+                next.deficit += next.weight;
+            }
+        }
+        return null;
+    }
+
+
+    public class Lane implements Executor, ConcurrencyLimit {
+        private final String name;
+        private final int weight;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private int deficit = 0;
+        private int running = 0;
+        private boolean busy = false;
+        private boolean closed = false;
+        private volatile int limit;
+
+        private Lane(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            lock.lock();
+            try {
+                if (shutdown || closed) {
+                    throw new RejectedExecutionException("lane " + name + " closed");
+                }
+                queue.add(command);
+                refresh(this);
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the workers this lane gets, sharing with the lanes busy now
+         */
+        @Override
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getQueued() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Reject new tasks, the lane is removed once its queued tasks have been taken.
+         */
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                if (queue.isEmpty()) {
+                    removeLane(this);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Lane{" + name + ", weight=" + weight + '}';
+        }
+    }
+
+}
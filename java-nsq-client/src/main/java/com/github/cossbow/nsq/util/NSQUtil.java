@@ -3,6 +3,8 @@ package com.github.cossbow.nsq.util;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
 
 import java.io.*;
 import java.net.URI;
@@ -18,6 +20,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
@@ -27,11 +30,25 @@ public class NSQUtil {
     }
 
 
-    public static final ScheduledExecutorService SCHEDULER
-            = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * Periodic lookups, which may block on HTTP.
+     */
+    public static final ScheduledExecutorService SCHEDULER;
 
     public final static ExecutorService DEFAULT_EXECUTOR;
 
+    /**
+     * Hashed wheel timer for high volume, coarse timeouts: backoff, rate limit, drain,
+     * touches and local retries. Adding or cancelling a timeout is O(1), it fires within
+     * one tick late. Tasks must be short, they run on the tick thread. Tune with the system properties
+     * {@value #TIMER_TICK_PROPERTY} (milliseconds, default 10) and
+     * {@value #TIMER_WHEEL_PROPERTY} (default 512).
+     */
+    public static final Timer TIMER;
+
+    public static final String TIMER_TICK_PROPERTY = "com.github.cossbow.nsq.timer.tickMillis";
+    public static final String TIMER_WHEEL_PROPERTY = "com.github.cossbow.nsq.timer.ticksPerWheel";
+
     public static final HttpClient CLIENT;
 
     private static final Gson gson;
@@ -51,6 +68,15 @@ public class NSQUtil {
             return t;
         });
 
+        SCHEDULER = Executors.newSingleThreadScheduledExecutor(r ->
+                new Thread(group, r, "com.github.cossbow.nsq-lookup"));
+
+        TIMER = new HashedWheelTimer(r -> {
+            var t = new Thread(group, r, "com.github.cossbow.nsq-timer");
+            t.setDaemon(true);
+            return t;
+        }, Long.getLong(TIMER_TICK_PROPERTY, 10), TimeUnit.MILLISECONDS, Integer.getInteger(TIMER_WHEEL_PROPERTY, 512));
+
         CLIENT = HttpClient.newBuilder().executor(DEFAULT_EXECUTOR).build();
 
         gson = new GsonBuilder()
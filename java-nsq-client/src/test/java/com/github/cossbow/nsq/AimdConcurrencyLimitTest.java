@@ -0,0 +1,86 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AimdConcurrencyLimitTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void increase() {
+        var limit = new AimdConcurrencyLimit(10, 1, 12, 0.5, 2.0, 1000);
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(MS, true, now += MS);
+        }
+        // about one per limit samples
+        Assert.assertEquals(10, limit.getLimit());
+        limit.onSample(MS, true, now += MS);
+        Assert.assertEquals(11, limit.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(MS, true, now += MS);
+        }
+        Assert.assertEquals(12, limit.getLimit());
+    }
+
+    @Test
+    public void decreaseOncePerRoundTrip() {
+        var limit = new AimdConcurrencyLimit(100, 1, 200, 0.5, 2.0, 1000);
+        limit.onSample(10 * MS, false, 100 * MS);
+        Assert.assertEquals(50, limit.getLimit());
+        // dispatched before the cut, no new evidence
+        limit.onSample(10 * MS, false, 105 * MS);
+        limit.onSample(10 * MS, false, 109 * MS);
+        Assert.assertEquals(50, limit.getLimit());
+        limit.onSample(10 * MS, false, 110 * MS);
+        Assert.assertEquals(25, limit.getLimit());
+    }
+
+    @Test
+    public void slowSampleIsDrop() {
+        var limit = new AimdConcurrencyLimit(100, 1, 200, 0.5, 2.0, 1000);
+        limit.onSample(MS, true, 10 * MS);
+        Assert.assertEquals(100, limit.getLimit());
+        limit.onSample(2 * MS, true, 20 * MS);
+        Assert.assertEquals(100, limit.getLimit());
+        limit.onSample(3 * MS, true, 30 * MS);
+        Assert.assertEquals(50, limit.getLimit());
+    }
+
+    @Test
+    public void bounds() {
+        var limit = new AimdConcurrencyLimit(1000, 4, 20, 0.5, 2.0, 1000);
+        Assert.assertEquals(20, limit.getLimit());
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(MS, false, now += 2 * MS);
+        }
+        Assert.assertEquals(4, limit.getLimit());
+        for (int i = 0; i < 1000; i++) {
+            limit.onSample(MS, true, now += MS);
+        }
+        Assert.assertEquals(20, limit.getLimit());
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> new AimdConcurrencyLimit(1, 0, 10));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new AimdConcurrencyLimit(1, 5, 4));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new AimdConcurrencyLimit(1, 1, 4, 1.0, 2.0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new AimdConcurrencyLimit(1, 1, 4, 0.5, 2.0, 0));
+    }
+
+    @Test
+    public void baselineFollowsSlowerDownstream() {
+        var second = 1000 * MS;
+        var limit = new AimdConcurrencyLimit(100, 1, 200, 0.5, 2.0, 1000);
+        limit.onSample(MS, true, 0);
+        // the best latency of the previous window still counts
+        limit.onSample(5 * MS, true, second);
+        Assert.assertEquals(50, limit.getLimit());
+        // two windows later only the slower latency is left
+        for (int i = 1; i <= 100; i++) {
+            limit.onSample(5 * MS, true, 2 * second + i * MS);
+        }
+        Assert.assertTrue(limit.getLimit() > 50);
+    }
+
+}
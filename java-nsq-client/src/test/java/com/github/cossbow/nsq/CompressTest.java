@@ -2,11 +2,15 @@ package com.github.cossbow.nsq;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class CompressTest {
     static {
@@ -93,5 +97,39 @@ public class CompressTest {
 
     }
 
+    @Test
+    public void deflateReuse() throws IOException {
+        var bs = getTestData().getBytes();
+        var first = CompressType.Deflate.encode(bs);
+        for (int i = 0; i < 100; i++) {
+            var cd = CompressType.Deflate.encode(bs);
+            Assert.assertArrayEquals(first, cd);
+            Assert.assertArrayEquals(bs, CompressType.Deflate.decode(cd));
+        }
+        Assert.assertEquals(1, ZlibPool.idleDeflaters());
+        Assert.assertEquals(1, ZlibPool.idleInflaters());
+
+        // streams open at the same time get their own codec
+        var a = new ByteArrayOutputStream();
+        var b = new ByteArrayOutputStream();
+        try (var outA = CompressType.Deflate.output.apply(a);
+             var outB = CompressType.Deflate.output.apply(b)) {
+            outA.write(bs);
+            outB.write("other".getBytes());
+        }
+        Assert.assertEquals(2, ZlibPool.idleDeflaters());
+        Assert.assertArrayEquals(bs, CompressType.Deflate.decode(a.toByteArray()));
+        try (var in = CompressType.Deflate.input.apply(new ByteArrayInputStream(b.toByteArray()))) {
+            Assert.assertEquals("other", new String(in.readAllBytes()));
+        }
+
+        // a failed stream still returns its codec reset
+        try (var out = CompressType.Deflate.output.apply(new ByteArrayOutputStream())) {
+            out.write(Arrays.copyOf(bs, 100));
+            throw new IOException("abort");
+        } catch (IOException ignore) {
+        }
+        Assert.assertArrayEquals(first, CompressType.Deflate.encode(bs));
+    }
 
 }
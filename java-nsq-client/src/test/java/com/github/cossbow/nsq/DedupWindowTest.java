@@ -0,0 +1,44 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DedupWindowTest {
+
+    @Test
+    public void remember() {
+        var window = new DedupWindow(10_000, 0.001, 60_000);
+        for (int i = 0; i < 10_000; i++) {
+            window.put("message-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(window.mightContain("message-" + i));
+        }
+
+        var falsePositives = 0;
+        for (int i = 10_000; i < 20_000; i++) {
+            if (window.mightContain("message-" + i)) falsePositives++;
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 50);
+        Assert.assertTrue(window.getFalsePositiveProbability() < 0.005);
+        Assert.assertEquals(10_000 + falsePositives, window.getDuplicates());
+    }
+
+    @Test
+    public void expire() throws InterruptedException {
+        var window = new DedupWindow(100, 0.01, 50);
+        window.put("0a1b2c3d4e5f6789");
+        Assert.assertTrue(window.mightContain("0a1b2c3d4e5f6789"));
+        Thread.sleep(60);
+        Assert.assertTrue("kept for the previous window", window.mightContain("0a1b2c3d4e5f6789"));
+        Thread.sleep(60);
+        Assert.assertFalse(window.mightContain("0a1b2c3d4e5f6789"));
+    }
+
+    @Test
+    public void memoryLimit() {
+        var window = new DedupWindow(10_000_000, 0.0001, 60_000, 1 << 20);
+        Assert.assertTrue(window.getMemoryBytes() <= 1 << 20);
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.lookup.NSQLookup;
+import com.github.cossbow.nsq.lookup.StaticNSQLookup;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.junit.Assert;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Just enough of nsqd for one consumer connection: answers IDENTIFY, SUB and CLS,
+ * records every other command and writes the frames a test asks for.
+ */
+public class FakeNsqd implements Closeable {
+
+    private final NioEventLoopGroup group = new NioEventLoopGroup(1);
+    private final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    private final String identifyResponse;
+    private final ServerBootstrap bootstrap;
+    private final int port;
+    private volatile Channel server;
+    private volatile Channel client;
+    private volatile boolean closeWait = true;
+
+
+    public FakeNsqd() throws InterruptedException {
+        this(0);
+    }
+
+    /**
+     * @param msgTimeout msg_timeout to negotiate in milliseconds, 0 to leave it out
+     */
+    public FakeNsqd(long msgTimeout) throws InterruptedException {
+        identifyResponse = "{\"version\":\"1.2.0\",\"max_rdy_count\":2500" +
+                (msgTimeout > 0 ? ",\"msg_timeout\":" + msgTimeout : "") + "}";
+        bootstrap = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        client = ch;
+                        ch.pipeline().addLast(new Decoder());
+                    }
+                });
+        server = bootstrap.bind("127.0.0.1", 0).sync().channel();
+        port = ((InetSocketAddress) server.localAddress()).getPort();
+    }
+
+    public NSQLookup lookup() {
+        return new StaticNSQLookup(List.of(new ServerAddress("127.0.0.1", port)));
+    }
+
+    /**
+     * Drop the consumer's socket without CLOSE_WAIT, as a crashed nsqd or a broken network would.
+     */
+    public void disconnect() throws InterruptedException {
+        client.close().sync();
+    }
+
+    /**
+     * Stop listening, new connections are refused until {@link #restart()}.
+     */
+    public void stop() throws InterruptedException {
+        server.close().sync();
+    }
+
+    /**
+     * Listen again on the same port.
+     */
+    public void restart() throws InterruptedException {
+        server = bootstrap.bind("127.0.0.1", port).sync().channel();
+    }
+
+    /**
+     * Whether CLS is answered with CLOSE_WAIT, true by default.
+     */
+    public void setCloseWait(boolean closeWait) {
+        this.closeWait = closeWait;
+    }
+
+    public static String id(int i) {
+        return String.format("%016d", i);
+    }
+
+    public void send(int i, String body) throws InterruptedException {
+        send(id(i), 1, body);
+    }
+
+    public void send(String id, int attempts, String body) throws InterruptedException {
+        write(buf -> writeMessage(buf, id, attempts, body));
+    }
+
+    /**
+     * Write frames to the consumer in one flush, once it has subscribed.
+     */
+    public void write(Consumer<ByteBuf> frames) throws InterruptedException {
+        Assert.assertTrue("not subscribed", subscribed.await(10, TimeUnit.SECONDS));
+        var buf = client.alloc().buffer();
+        frames.accept(buf);
+        client.writeAndFlush(buf).sync();
+    }
+
+    /**
+     * Send a response frame, such as a CLOSE_WAIT held back by {@link #setCloseWait(boolean)}.
+     */
+    public void respond(String response) throws InterruptedException {
+        write(buf -> writeResponse(buf, response));
+    }
+
+    public static void writeMessage(ByteBuf buf, String id, int attempts, String body) {
+        var data = body.getBytes(StandardCharsets.US_ASCII);
+        buf.writeInt(4 + 27 + data.length).writeInt(2)
+                .writeLong(System.currentTimeMillis() * 1_000_000L).writeShort(attempts).writeByte(0);
+        buf.writeCharSequence(id, StandardCharsets.US_ASCII);
+        buf.writeBytes(data);
+    }
+
+    public static void writeHeartbeat(ByteBuf buf) {
+        writeResponse(buf, "_heartbeat_");
+    }
+
+    private static void writeResponse(ByteBuf buf, String s) {
+        var data = s.getBytes(StandardCharsets.US_ASCII);
+        buf.writeInt(4 + data.length).writeInt(0).writeBytes(data);
+    }
+
+    /**
+     * @return the next command within the timeout, or null
+     */
+    public String poll(long timeoutMillis) throws InterruptedException {
+        return commands.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the next command starting with {@code prefix}, commands before it are skipped
+     */
+    public String expect(String prefix) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        String line;
+        while (null != (line = commands.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        throw new AssertionError("no " + prefix + " received");
+    }
+
+    public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        var ch = client;
+        return null != ch && ch.closeFuture().await(timeoutMillis);
+    }
+
+    @Override
+    public void close() {
+        server.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    private class Decoder extends ByteToMessageDecoder {
+        private boolean magic;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (!magic) {
+                if (in.readableBytes() < 4) return;
+                in.skipBytes(4);
+                magic = true;
+            }
+            while (true) {
+                var eol = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+                if (eol < 0) return;
+                var line = in.toString(in.readerIndex(), eol - in.readerIndex(), StandardCharsets.US_ASCII);
+                if (line.equals("IDENTIFY")) {
+                    if (eol + 5 > in.writerIndex()) return;
+                    var size = in.getInt(eol + 1);
+                    if (eol + 5 + size > in.writerIndex()) return;
+                    in.readerIndex(eol + 5 + size);
+                    respond(ctx, identifyResponse);
+                    continue;
+                }
+                in.readerIndex(eol + 1);
+                if (line.startsWith("SUB ")) {
+                    respond(ctx, "OK");
+                    subscribed.countDown();
+                } else if (line.equals("CLS") && closeWait) {
+                    respond(ctx, "CLOSE_WAIT");
+                }
+                commands.add(line);
+            }
+        }
+
+        private void respond(ChannelHandlerContext ctx, String s) {
+            var buf = ctx.alloc().buffer();
+            writeResponse(buf, s);
+            ctx.writeAndFlush(buf);
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.github.cossbow.nsq;
+
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class MessageIdTest {
+
+    private static final String ID = "0a1b2c3d4e5f6789";
+
+    @Test
+    public void readAndPrint() {
+        var buf = Unpooled.copiedBuffer(ID, StandardCharsets.US_ASCII);
+        var id = MessageId.read(buf);
+        Assert.assertEquals(0, buf.readableBytes());
+        Assert.assertEquals(ID, id.toString());
+        Assert.assertEquals(ID.length(), id.length());
+        Assert.assertEquals('a', id.charAt(1));
+        Assert.assertEquals('9', id.charAt(15));
+        Assert.assertEquals(id, MessageId.of(ID));
+        Assert.assertEquals(id.hashCode(), MessageId.of(ID).hashCode());
+    }
+
+    @Test
+    public void ackCommands() {
+        var id = MessageId.of(ID);
+        assertLine("FIN " + ID + "\n", NSQCommand.finish(id));
+        assertLine("TOUCH " + ID + "\n", NSQCommand.touch(id));
+        assertLine("REQ " + ID + " 0\n", NSQCommand.requeue(id, 0));
+        assertLine("REQ " + ID + " 2147483647\n", NSQCommand.requeue(ID, Integer.MAX_VALUE));
+        Assert.assertEquals("REQ " + ID + " 1500", NSQCommand.requeue(id, 1500).toString());
+    }
+
+    private static void assertLine(String expected, NSQCommand command) {
+        var buf = command.getBuf();
+        try {
+            Assert.assertEquals(expected, buf.toString(StandardCharsets.US_ASCII));
+            Assert.assertEquals(buf.capacity(), buf.readableBytes());
+        } finally {
+            command.release();
+        }
+    }
+
+}
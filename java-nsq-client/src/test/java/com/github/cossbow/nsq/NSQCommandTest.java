@@ -0,0 +1,104 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.exceptions.NSQDException;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class NSQCommandTest {
+
+    @Test
+    public void constantCommands() {
+        Assert.assertSame(NSQCommand.nop(), NSQCommand.nop());
+        Assert.assertSame(NSQCommand.startClose(), NSQCommand.startClose());
+        Assert.assertSame(NSQCommand.ready(100), NSQCommand.ready(100));
+
+        for (int i = 0; i < 3; i++) {
+            var nop = NSQCommand.nop();
+            var buf = nop.getBuf();
+            Assert.assertEquals("NOP\n", buf.toString(StandardCharsets.US_ASCII));
+            buf.skipBytes(buf.readableBytes());
+            buf.release();
+            nop.release();
+        }
+        var cls = NSQCommand.startClose().getBuf();
+        Assert.assertEquals("CLS\n", cls.toString(StandardCharsets.US_ASCII));
+        Assert.assertTrue(cls.isDirect());
+        cls.release();
+
+        var ready = NSQCommand.ready(100);
+        var buf = ready.getBuf();
+        Assert.assertEquals("RDY 100\n", buf.toString(StandardCharsets.US_ASCII));
+        Assert.assertTrue(buf.isDirect());
+        buf.release();
+        ready.release();
+
+        // beyond the cache, encoded for the call and owned by the command
+        ready = NSQCommand.ready(100000);
+        buf = ready.getBuf();
+        Assert.assertEquals("RDY 100000\n", buf.toString(StandardCharsets.US_ASCII));
+        ready.release();
+        Assert.assertEquals(0, buf.refCnt());
+        Assert.assertEquals("RDY 0", NSQCommand.ready(0).toString());
+    }
+
+    @Test
+    public void exactSize() {
+        var body = new byte[100_000];
+        var pub = NSQCommand.publish("t", CompressType.Non, body).encode(ByteBufAllocator.DEFAULT);
+        Assert.assertEquals(pub.capacity(), pub.readableBytes());
+        Assert.assertEquals("PUB t\n", pub.readCharSequence(6, StandardCharsets.US_ASCII).toString());
+        Assert.assertEquals(body.length, pub.readInt());
+        pub.release();
+
+        var mpub = NSQCommand.multiPublish("t", CompressType.Non, List.of(new byte[3], new byte[5]))
+                .encode(ByteBufAllocator.DEFAULT);
+        Assert.assertEquals(mpub.capacity(), mpub.readableBytes());
+        mpub.skipBytes(7);
+        Assert.assertEquals(4 + 4 + 3 + 4 + 5, mpub.readInt());
+        Assert.assertEquals(2, mpub.readInt());
+        mpub.release();
+
+        var fin = NSQCommand.requeue(MessageId.of("0123456789abcdef"), 1500).encode(ByteBufAllocator.DEFAULT);
+        Assert.assertEquals("REQ 0123456789abcdef 1500\n", fin.toString(StandardCharsets.US_ASCII));
+        Assert.assertEquals(fin.capacity(), fin.readableBytes());
+        fin.release();
+    }
+
+    @Test
+    public void callbackOnCallerThread() {
+        var calls = new AtomicInteger();
+        var caller = Thread.currentThread();
+        var mpub = NSQCommand.multiPublish("t", CompressType.Non, Stream.of(out -> {
+            Assert.assertSame(caller, Thread.currentThread());
+            calls.incrementAndGet();
+            out.write(new byte[3]);
+        }, out -> {
+            calls.incrementAndGet();
+            out.write(new byte[5]);
+        }));
+        Assert.assertEquals(2, calls.get());
+
+        // the bodies are kept, so it encodes again without the callbacks
+        for (int i = 0; i < 2; i++) {
+            var buf = mpub.encode(ByteBufAllocator.DEFAULT);
+            Assert.assertEquals(buf.capacity(), buf.readableBytes());
+            buf.skipBytes(7);
+            Assert.assertEquals(4 + 4 + 3 + 4 + 5, buf.readInt());
+            Assert.assertEquals(2, buf.readInt());
+            buf.release();
+        }
+        Assert.assertEquals(2, calls.get());
+
+        Assert.assertThrows(NSQDException.class, () -> NSQCommand.publish("t", CompressType.Non, out -> {
+            throw new IOException("broken");
+        }));
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class NSQConsumerPrefetchTest {
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private NSQConsumer<String> consumer(FakeNsqd nsqd) {
+        // concurrency 1 so no batch RDY gets in between
+        return new NSQConsumer<String>(nsqd.lookup(), "orders", "billing", 1, message -> {
+            received.add(message.getId().toString());
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            message.finished();
+        }, new NSQConfig(), in -> new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void watermarks() throws Exception {
+        var executor = Executors.newCachedThreadPool();
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd).setPrefetch(10, 1, 2, 10)
+                    .setConcurrencyLimit(() -> 100).setExecutor(executor).start();
+            try {
+                // capacity and workers cap RDY, the concurrency limit does not raise it
+                Assert.assertEquals("RDY 11", nsqd.expect("RDY "));
+                nsqd.send(0, "0");
+                Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+                nsqd.write(buf -> {
+                    for (int i = 1; i <= 10; i++) {
+                        FakeNsqd.writeMessage(buf, FakeNsqd.id(i), 1, Integer.toString(i));
+                    }
+                });
+                Assert.assertEquals("RDY 0", nsqd.expect("RDY "));
+                Assert.assertNull(nsqd.poll(200));
+
+                release.countDown();
+                // resumes when taking message 8 leaves two, the low watermark
+                for (int i = 0; i <= 7; i++) {
+                    Assert.assertEquals("FIN " + FakeNsqd.id(i), nsqd.poll(10_000));
+                }
+                Assert.assertEquals("RDY 11", nsqd.poll(10_000));
+                for (int i = 8; i <= 10; i++) {
+                    Assert.assertEquals("FIN " + FakeNsqd.id(i), nsqd.poll(10_000));
+                }
+                Assert.assertEquals(11, received.size());
+            } finally {
+                release.countDown();
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        var executor = Executors.newCachedThreadPool();
+        try (var nsqd = new FakeNsqd(400)) {
+            var consumer = consumer(nsqd).setPrefetch(4, 1).setExecutor(executor).start();
+            try {
+                nsqd.expect("RDY ");
+                nsqd.send(0, "0");
+                Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+                var sent = System.nanoTime();
+                nsqd.send(1, "1");
+
+                // the only worker is busy, the sweep touches at half and requeues at msg_timeout
+                Assert.assertEquals("TOUCH " + FakeNsqd.id(1), nsqd.expect("TOUCH "));
+                Assert.assertTrue(System.nanoTime() - sent >= TimeUnit.MILLISECONDS.toNanos(200));
+                Assert.assertEquals("REQ " + FakeNsqd.id(1) + " 0", nsqd.expect("REQ "));
+                Assert.assertTrue(System.nanoTime() - sent >= TimeUnit.MILLISECONDS.toNanos(400));
+
+                release.countDown();
+                Assert.assertEquals("FIN " + FakeNsqd.id(0), nsqd.expect("FIN "));
+                Assert.assertEquals(List.of(FakeNsqd.id(0)), received);
+            } finally {
+                release.countDown();
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
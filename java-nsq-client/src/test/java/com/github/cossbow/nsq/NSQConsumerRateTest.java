@@ -0,0 +1,71 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class NSQConsumerRateTest {
+
+    private NSQConsumer<String> consumer(FakeNsqd nsqd) {
+        return new NSQConsumer<String>(nsqd.lookup(), "orders", "billing", 100, NSQMessage::finished,
+                new NSQConfig(), in -> new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void messages() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd).setRateLimiter(new RateLimiter(10, 2)).setExecutor(executor).start();
+            try {
+                // RDY is capped by the burst
+                Assert.assertEquals("RDY 2", nsqd.expect("RDY "));
+                nsqd.write(buf -> {
+                    for (int i = 1; i <= 3; i++) {
+                        FakeNsqd.writeMessage(buf, FakeNsqd.id(i), 1, "m");
+                    }
+                });
+                // the third message takes the bucket into debt for 100ms
+                Assert.assertEquals("RDY 0", nsqd.expect("RDY "));
+                var paused = System.nanoTime();
+                Assert.assertEquals("RDY 2", nsqd.expect("RDY "));
+                Assert.assertTrue(System.nanoTime() - paused >= TimeUnit.MILLISECONDS.toNanos(50));
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void bytes() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try (var nsqd = new FakeNsqd()) {
+            // sizes are read before the message is handed off, recycled messages have none after
+            var consumer = consumer(nsqd).setRateLimiter(new RateLimiter(1000, 100), true)
+                    .setRecycleMessages(true).setExecutor(executor).start();
+            try {
+                // the burst counts bytes, RDY is not capped by it
+                Assert.assertEquals("RDY 100", nsqd.expect("RDY "));
+                nsqd.send(1, "x".repeat(50));
+                Assert.assertEquals("FIN " + FakeNsqd.id(1), nsqd.expect("FIN "));
+                Assert.assertNull(nsqd.poll(100));
+
+                // 300 bytes, 200 in debt at 1000 bytes per second
+                nsqd.send(2, "x".repeat(300));
+                Assert.assertEquals("RDY 0", nsqd.expect("RDY "));
+                var paused = System.nanoTime();
+                Assert.assertEquals("RDY 100", nsqd.expect("RDY "));
+                Assert.assertTrue(System.nanoTime() - paused >= TimeUnit.MILLISECONDS.toNanos(150));
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
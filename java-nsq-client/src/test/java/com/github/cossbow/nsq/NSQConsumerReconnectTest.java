@@ -0,0 +1,128 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.util.NSQUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class NSQConsumerReconnectTest {
+
+    /**
+     * Records the timeouts the consumer schedules, the reconnect delays among them.
+     */
+    private static class RecordingTimer implements Timer {
+        private final List<Long> delays = new ArrayList<>();
+        private final List<Timeout> timeouts = new ArrayList<>();
+
+        @Override
+        public synchronized Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+            var timeout = NSQUtil.TIMER.newTimeout(task, delay, unit);
+            delays.add(unit.toMillis(delay));
+            timeouts.add(timeout);
+            notifyAll();
+            return timeout;
+        }
+
+        synchronized List<Long> await(int count) throws InterruptedException {
+            var deadline = System.currentTimeMillis() + 10_000;
+            while (delays.size() < count) {
+                var left = deadline - System.currentTimeMillis();
+                Assert.assertTrue("only " + delays.size() + " timeouts", left > 0);
+                wait(left);
+            }
+            return new ArrayList<>(delays);
+        }
+
+        synchronized Timeout timeout(int i) {
+            return timeouts.get(i);
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            return Set.of();
+        }
+    }
+
+    private NSQConsumer<String> consumer(FakeNsqd nsqd) {
+        return new NSQConsumer<>(nsqd.lookup(), "orders", "billing", 10, NSQMessage::finished,
+                new NSQConfig(), in -> new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void reconnect() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd).setReconnectBackoff(50, 1000).start();
+            try {
+                Assert.assertEquals("SUB orders billing", nsqd.expect("SUB "));
+                Assert.assertEquals("RDY 10", nsqd.expect("RDY "));
+
+                nsqd.disconnect();
+                // well before the next lookup, 60s by default
+                Assert.assertEquals("SUB orders billing", nsqd.expect("SUB "));
+                Assert.assertEquals("RDY 10", nsqd.expect("RDY "));
+                nsqd.send(1, "1");
+                Assert.assertEquals("FIN " + FakeNsqd.id(1), nsqd.expect("FIN "));
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    public void backoff() throws Exception {
+        var timer = new RecordingTimer();
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd).setReconnectBackoff(50, 400).setTimer(timer).start();
+            try {
+                nsqd.expect("RDY ");
+                nsqd.stop();
+                nsqd.disconnect();
+
+                // each refused connect waits longer, up to 3 times the last delay and the max
+                var delays = timer.await(6);
+                Assert.assertEquals(50L, (long) delays.get(0));
+                for (int i = 1; i < delays.size(); i++) {
+                    var delay = delays.get(i);
+                    Assert.assertTrue(delays.toString(), delay >= 50 && delay < Math.min(400, delays.get(i - 1) * 3));
+                }
+                Assert.assertTrue(delays.toString(), delays.stream().anyMatch(d -> d > 50));
+
+                nsqd.restart();
+                Assert.assertEquals("SUB orders billing", nsqd.expect("SUB "));
+                Assert.assertEquals("RDY 10", nsqd.expect("RDY "));
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    public void shutdownCancelsReconnect() throws Exception {
+        var timer = new RecordingTimer();
+        try (var nsqd = new FakeNsqd()) {
+            // long enough to still be pending however slow the shutdown
+            var consumer = consumer(nsqd).setReconnectBackoff(10_000, 10_000).setTimer(timer).start();
+            nsqd.expect("RDY ");
+            nsqd.stop();
+            nsqd.disconnect();
+            Assert.assertEquals(10_000L, (long) timer.await(1).get(0));
+
+            consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            // a reconnect scheduled while shutting down is cancelled by the thread scheduling it
+            var deadline = System.currentTimeMillis() + 10_000;
+            while (!timer.timeout(0).isCancelled()) {
+                Assert.assertTrue("reconnect not cancelled", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+}
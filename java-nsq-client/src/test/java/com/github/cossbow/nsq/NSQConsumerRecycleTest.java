@@ -0,0 +1,104 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages taken from the pool go back on FIN/REQ, the consumer must not use them afterwards.
+ */
+public class NSQConsumerRecycleTest {
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+
+    private NSQConsumer<String> consumer(FakeNsqd nsqd, int concurrency, Executor executor) {
+        return new NSQConsumer<String>(nsqd.lookup(), "orders", "billing", concurrency, message -> {
+            received.add(message.getId() + ":" + message.getObj());
+            message.finished();
+        }, new NSQConfig(), in -> {
+            var body = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+            if (body.equals("bad")) throw new IOException("bad body");
+            return body;
+        }).setRecycleMessages(true).setExecutor(executor);
+    }
+
+    @Test
+    public void duplicate() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try (var nsqd = new FakeNsqd()) {
+            var window = new DedupWindow(1000, 0.001, 60_000);
+            window.put(FakeNsqd.id(1));
+            // with 3 per batch the second message sends RDY
+            var consumer = consumer(nsqd, 3, executor).setDeduplication(window).start();
+            try {
+                nsqd.expect("RDY ");
+                for (int i = 0; i < 3; i++) {
+                    nsqd.send(1, "dup");
+                    Assert.assertEquals("FIN " + FakeNsqd.id(1), nsqd.expect("FIN "));
+                }
+                nsqd.send(2, "ok");
+                Assert.assertEquals("FIN " + FakeNsqd.id(2), nsqd.expect("FIN "));
+                Assert.assertEquals(List.of(FakeNsqd.id(2) + ":ok"), received);
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rejected() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd, 10, command -> {
+                throw new RejectedExecutionException();
+            }).start();
+            try {
+                nsqd.expect("RDY ");
+                nsqd.send(1, "ok");
+                Assert.assertEquals("REQ " + FakeNsqd.id(1) + " 0", nsqd.expect("REQ "));
+                // backs off on the connection the message came from, then tests the waters
+                Assert.assertEquals("RDY 0", nsqd.expect("RDY "));
+                Assert.assertEquals("RDY 1", nsqd.expect("RDY "));
+                Assert.assertTrue(received.isEmpty());
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    public void decodeError() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd, 10, executor).start();
+            try {
+                nsqd.expect("RDY ");
+                nsqd.send(1, "bad");
+                Assert.assertEquals("FIN " + FakeNsqd.id(1), nsqd.expect("FIN "));
+                nsqd.send(2, "ok");
+                Assert.assertEquals("FIN " + FakeNsqd.id(2), nsqd.expect("FIN "));
+                Assert.assertEquals(List.of(FakeNsqd.id(2) + ":ok"), received);
+                // FIN is written before the message is counted done
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (consumer.getInFlight() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(0, consumer.getInFlight());
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class NSQConsumerRetryTest {
+
+    @Test
+    public void retryLocally() throws Exception {
+        var attempts = new CopyOnWriteArrayList<Integer>();
+        var latency = new CompletableFuture<Long>();
+        ConcurrencyLimit limit = new ConcurrencyLimit() {
+            @Override
+            public int getLimit() {
+                return 10;
+            }
+
+            @Override
+            public void onSample(long latencyNanos, boolean success) {
+                latency.complete(latencyNanos);
+            }
+        };
+        // touched every 200ms while waiting
+        try (var nsqd = new FakeNsqd(400)) {
+            var consumer = new NSQConsumer<String>(nsqd.lookup(), "orders", "billing", 10, message -> {
+                attempts.add(message.getAttempts());
+                // two short retries waited out locally, then one beyond the threshold
+                message.retry(attempts.size() < 3 ? 300 : 1000);
+            }, new NSQConfig(), in -> new String(in.readAllBytes(), StandardCharsets.US_ASCII))
+                    .setLocalRetryThreshold(500).setConcurrencyLimit(limit).start();
+            try {
+                nsqd.expect("RDY ");
+                var begin = System.nanoTime();
+                nsqd.send(1, "1");
+
+                Assert.assertEquals("TOUCH " + FakeNsqd.id(1), nsqd.expect("TOUCH "));
+                Assert.assertEquals("REQ " + FakeNsqd.id(1) + " 1000", nsqd.expect("REQ "));
+                Assert.assertEquals(List.of(1, 2, 3), attempts);
+                // the sample covers both local waits, not only the last attempt
+                var elapsed = System.nanoTime() - begin;
+                var sample = latency.get(10, TimeUnit.SECONDS);
+                Assert.assertTrue(sample + "ns", sample >= TimeUnit.MILLISECONDS.toNanos(600) && sample <= elapsed);
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+}
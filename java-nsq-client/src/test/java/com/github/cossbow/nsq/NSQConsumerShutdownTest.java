@@ -0,0 +1,117 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class NSQConsumerShutdownTest {
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private NSQConsumer<String> consumer(FakeNsqd nsqd, Consumer<NSQMessage<String>> callback) {
+        return new NSQConsumer<>(nsqd.lookup(), "orders", "billing", 10, callback,
+                new NSQConfig(), in -> new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    private void handle(NSQMessage<String> message) {
+        entered.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        message.finished();
+    }
+
+    /**
+     * RDY is sent before the consumer adds the connection, wait for that too or shutdown
+     * finds nothing to close.
+     */
+    private static void awaitConnected(FakeNsqd nsqd, NSQConsumer<String> consumer) throws InterruptedException {
+        nsqd.expect("RDY ");
+        var deadline = System.currentTimeMillis() + 10_000;
+        while (consumer.getConnectionCount() == 0) {
+            Assert.assertTrue("not connected", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void drain() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd, this::handle).setExecutor(executor).start();
+            awaitConnected(nsqd, consumer);
+            nsqd.send(1, "1");
+            Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            var closed = consumer.shutdownGracefully(10_000);
+            Assert.assertEquals("CLS", nsqd.expect("CLS"));
+            // CLOSE_WAIT is back, the message is still in flight
+            Assert.assertNull(nsqd.poll(200));
+            Assert.assertEquals(1, consumer.getInFlight());
+            Assert.assertFalse(closed.isDone());
+
+            release.countDown();
+            Assert.assertEquals("FIN " + FakeNsqd.id(1), nsqd.expect("FIN "));
+            Assert.assertTrue(nsqd.awaitClosed(10_000));
+            closed.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitCloseWait() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            nsqd.setCloseWait(false);
+            var consumer = consumer(nsqd, NSQMessage::finished).start();
+            awaitConnected(nsqd, consumer);
+
+            var closed = consumer.shutdownGracefully(10_000);
+            nsqd.expect("CLS");
+            Assert.assertFalse(nsqd.awaitClosed(200));
+            Assert.assertFalse(closed.isDone());
+
+            nsqd.respond("CLOSE_WAIT");
+            closed.get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(nsqd.awaitClosed(10_000));
+        }
+    }
+
+    @Test
+    public void noCloseWait() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            nsqd.setCloseWait(false);
+            var consumer = consumer(nsqd, NSQMessage::finished).start();
+            awaitConnected(nsqd, consumer);
+
+            var begin = System.nanoTime();
+            consumer.shutdownGracefully(300).get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(300));
+            Assert.assertTrue(nsqd.awaitClosed(10_000));
+        }
+    }
+
+    @Test
+    public void noCallback() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            var consumer = consumer(nsqd, null).start();
+            try {
+                nsqd.expect("RDY ");
+                nsqd.send(1, "1");
+                Assert.assertEquals("REQ " + FakeNsqd.id(1) + " 0", nsqd.expect("REQ "));
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+}
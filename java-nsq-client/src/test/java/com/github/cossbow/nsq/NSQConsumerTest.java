@@ -68,7 +68,7 @@ public class NSQConsumerTest extends Nsq {
         }
 
         assertTrue("数量不对", counter.get() == 2);
-        consumer.shutdown();
+        consumer.shutdownGracefully();
     }
 
 
@@ -0,0 +1,146 @@
+package com.github.cossbow.nsq;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class NSQMessageTest {
+
+    private static final byte[] BODY = "hello nsq".getBytes(StandardCharsets.US_ASCII);
+
+    private NSQMessage<String> message(CompressType compress, ByteBuf buf) {
+        var message = new NSQMessage<String>(null);
+        message.setCompress(compress);
+        message.setBuf(buf);
+        return message;
+    }
+
+    private static String string(ByteBuf buf) {
+        return buf.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void body() {
+        var buf = Unpooled.copiedBuffer(BODY);
+        var message = message(CompressType.Non, buf);
+        var body = message.body();
+        Assert.assertEquals("hello nsq", string(body));
+        Assert.assertTrue(body.isReadOnly());
+        // a view of the received buffer, not a copy
+        buf.setByte(0, 'j');
+        Assert.assertEquals("jello nsq", string(body));
+        Assert.assertEquals(BODY.length, message.getSize());
+        message.release();
+        Assert.assertEquals(0, buf.refCnt());
+    }
+
+    @Test
+    public void bodyBuffer() {
+        var message = message(CompressType.Non, Unpooled.copiedBuffer(BODY));
+        var buffer = message.bodyBuffer();
+        Assert.assertTrue(buffer.isReadOnly());
+        var bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Assert.assertArrayEquals(BODY, bytes);
+        message.release();
+    }
+
+    @Test
+    public void deflate() throws Exception {
+        var compressed = CompressType.Deflate.encode(BODY);
+        var message = message(CompressType.Deflate, Unpooled.wrappedBuffer(compressed));
+        Assert.assertEquals("hello nsq", string(message.body()));
+        Assert.assertArrayEquals(BODY, message.getMessage());
+        // the size is the one received
+        Assert.assertEquals(compressed.length, message.getSize());
+        message.release();
+    }
+
+    @Test
+    public void retainedBody() {
+        var buf = Unpooled.copiedBuffer(BODY);
+        var message = message(CompressType.Non, buf);
+        var body = message.retainedBody();
+        message.release();
+        Assert.assertEquals("hello nsq", string(body));
+        Assert.assertEquals(1, buf.refCnt());
+        body.release();
+        Assert.assertEquals(0, buf.refCnt());
+    }
+
+    @Test
+    public void afterRelease() throws Exception {
+        var message = message(CompressType.Non, Unpooled.copiedBuffer(BODY));
+        message.release();
+        Assert.assertThrows(IllegalStateException.class, message::body);
+        Assert.assertThrows(IllegalStateException.class, message::bodyBuffer);
+        Assert.assertThrows(IllegalStateException.class, message::retainedBody);
+        Assert.assertThrows(IllegalStateException.class, message::getMessage);
+        Assert.assertThrows(IllegalStateException.class, message::newMessageStream);
+    }
+
+    @Test
+    public void streamOpenedBeforeRelease() throws Exception {
+        var buf = Unpooled.copiedBuffer(BODY);
+        var message = message(CompressType.Non, buf);
+        try (var in = message.newMessageStream()) {
+            message.release();
+            Assert.assertArrayEquals(BODY, in.readAllBytes());
+        }
+        Assert.assertEquals(0, buf.refCnt());
+    }
+
+    private NSQConsumer<String> consumer(FakeNsqd nsqd, CompletableFuture<String> result) {
+        MessageDecoder<String> decoder = body -> {
+            if (!body.isReadOnly()) {
+                throw new AssertionError("writable body view");
+            }
+            return string(body);
+        };
+        return new NSQConsumer<>(nsqd.lookup(), "orders", "billing", 10, message -> {
+            try {
+                result.complete(message.getObj() + "," + new String(message.getMessage(), StandardCharsets.US_ASCII));
+            } catch (IllegalStateException e) {
+                result.complete(message.getObj() + "," + e.getMessage());
+            }
+            message.finished();
+        }, new NSQConfig(), decoder);
+    }
+
+    @Test
+    public void messageDecoder() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            var result = new CompletableFuture<String>();
+            var consumer = consumer(nsqd, result).start();
+            try {
+                nsqd.send(1, "hello");
+                // the body is released once decoded
+                Assert.assertEquals("hello,message body released", result.get(10, TimeUnit.SECONDS));
+                nsqd.expect("FIN ");
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    public void messageDecoderRetainBody() throws Exception {
+        try (var nsqd = new FakeNsqd()) {
+            var result = new CompletableFuture<String>();
+            var consumer = consumer(nsqd, result).setRetainBody(true).start();
+            try {
+                nsqd.send(1, "hello");
+                Assert.assertEquals("hello,hello", result.get(10, TimeUnit.SECONDS));
+                nsqd.expect("FIN ");
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NegotiatedFeaturesTest {
+
+    @Test
+    public void parse() {
+        var features = NegotiatedFeatures.parse("{\"max_rdy_count\":500,\"version\":\"1.2.1\"," +
+                "\"max_msg_timeout\":900000,\"msg_timeout\":30000,\"tls_v1\":false,\"deflate\":true," +
+                "\"deflate_level\":6,\"max_deflate_level\":6,\"snappy\":false,\"sample_rate\":0," +
+                "\"auth_required\":true,\"output_buffer_size\":16384,\"output_buffer_timeout\":250}");
+        Assert.assertEquals("1.2.1", features.getVersion());
+        Assert.assertEquals(500, features.getMaxRdyCount());
+        Assert.assertEquals(30000, features.getMsgTimeout());
+        Assert.assertEquals(900000, features.getMaxMsgTimeout());
+        Assert.assertTrue(features.isDeflate());
+        Assert.assertFalse(features.isSnappy());
+        Assert.assertFalse(features.isTlsV1());
+        Assert.assertEquals(6, features.getDeflateLevel());
+        Assert.assertTrue(features.isAuthRequired());
+        Assert.assertEquals(16384, features.getOutputBufferSize());
+        Assert.assertEquals(250, features.getOutputBufferTimeout());
+
+        Assert.assertEquals(500, features.clampReady(2000));
+        Assert.assertEquals(20, features.clampReady(20));
+        Assert.assertEquals(0, features.clampReady(-1));
+    }
+
+    @Test
+    public void withoutNegotiation() {
+        Assert.assertSame(NegotiatedFeatures.NONE, NegotiatedFeatures.parse("OK"));
+        Assert.assertSame(NegotiatedFeatures.NONE, NegotiatedFeatures.parse("{broken"));
+        Assert.assertEquals(5000, NegotiatedFeatures.NONE.clampReady(5000));
+        Assert.assertEquals(0, NegotiatedFeatures.NONE.getMsgTimeout());
+    }
+
+}
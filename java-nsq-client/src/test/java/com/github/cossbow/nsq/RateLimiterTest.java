@@ -0,0 +1,30 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    @Test
+    public void burst() {
+        var limiter = new RateLimiter(10, 5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, limiter.acquire(1));
+        }
+        var delay = limiter.acquire(1);
+        Assert.assertTrue(delay > 0);
+        Assert.assertTrue(delay <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void refill() throws InterruptedException {
+        var limiter = new RateLimiter(1000, 10);
+        Assert.assertTrue(limiter.acquire(20) > 0);
+        Thread.sleep(30);
+        Assert.assertEquals(0, limiter.delayNanos());
+        Assert.assertEquals(0, limiter.acquire(5));
+    }
+
+}
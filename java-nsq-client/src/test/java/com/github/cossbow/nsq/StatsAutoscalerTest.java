@@ -0,0 +1,78 @@
+package com.github.cossbow.nsq;
+
+import com.github.cossbow.nsq.lookup.StaticNSQLookup;
+import com.github.cossbow.nsq.util.NSQUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StatsAutoscalerTest {
+
+    @Test
+    public void scale() {
+        var autoscaler = new StatsAutoscaler(new StaticNSQLookup(), "orders", "billing", 4, 20)
+                .setScaleUpDepth(100);
+        Assert.assertEquals(4, autoscaler.getLimit());
+
+        autoscaler.update(new StatsAutoscaler.ChannelStats(5000, 4, 0, 2));
+        Assert.assertEquals(8, autoscaler.getLimit());
+        autoscaler.update(new StatsAutoscaler.ChannelStats(3000, 8, 0, 2));
+        Assert.assertEquals(16, autoscaler.getLimit());
+        autoscaler.update(new StatsAutoscaler.ChannelStats(1000, 16, 0, 2));
+        Assert.assertEquals(20, autoscaler.getLimit());
+
+        // backlog between the thresholds, keep
+        autoscaler.update(new StatsAutoscaler.ChannelStats(50, 20, 0, 2));
+        Assert.assertEquals(20, autoscaler.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            autoscaler.update(new StatsAutoscaler.ChannelStats(0, 1, 0, 2));
+        }
+        Assert.assertEquals(4, autoscaler.getLimit());
+    }
+
+    @Test
+    public void parseStats() {
+        var json = "{\"version\":\"1.2.0\",\"topics\":[{\"topic_name\":\"orders\",\"channels\":[" +
+                "{\"channel_name\":\"billing\",\"depth\":120,\"in_flight_count\":7,\"deferred_count\":3}," +
+                "{\"channel_name\":\"audit\",\"depth\":9000,\"in_flight_count\":1,\"deferred_count\":0}]}]}";
+        var legacy = "{\"status_code\":200,\"data\":{\"topics\":[{\"topic_name\":\"orders\",\"channels\":[" +
+                "{\"channel_name\":\"billing\",\"depth\":30,\"in_flight_count\":2,\"deferred_count\":1}]}]}}";
+
+        var autoscaler = new StatsAutoscaler(new StaticNSQLookup(), "orders", "billing", 1, 10);
+        var stats = autoscaler.sum(List.of(
+                NSQUtil.fromJson(json, StatsAutoscaler.StatsResponse.class),
+                NSQUtil.fromJson(legacy, StatsAutoscaler.StatsResponse.class)));
+        Assert.assertEquals(150, stats.getDepth());
+        Assert.assertEquals(9, stats.getInFlight());
+        Assert.assertEquals(4, stats.getDeferred());
+        Assert.assertEquals(2, stats.getNodes());
+    }
+
+    @Test
+    public void pollDoesNotBlockScheduler() throws InterruptedException {
+        // a lookup that never answers
+        var lookup = new StaticNSQLookup() {
+            @Override
+            public CompletableFuture<Set<ServerAddress>> lookupAsync(String topic) {
+                return new CompletableFuture<>();
+            }
+        };
+        var autoscaler = new StatsAutoscaler(lookup, "orders", "billing", 1, 10);
+        try {
+            autoscaler.start(10);
+            Thread.sleep(50);
+            var ran = new CountDownLatch(1);
+            NSQUtil.SCHEDULER.execute(ran::countDown);
+            Assert.assertTrue(ran.await(1, TimeUnit.SECONDS));
+        } finally {
+            autoscaler.close();
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.github.cossbow.nsq;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransportProfileTest {
+
+    @Test
+    public void latency() {
+        var config = new NSQConfig();
+        config.setTransportProfile(TransportProfile.LATENCY);
+        Assert.assertEquals(Boolean.TRUE, config.getTcpNoDelay());
+        Assert.assertNull(config.getReceiveBufferSize());
+        Assert.assertNull(config.getSendBufferSize());
+        Assert.assertEquals(8 * 1024, config.getWriteBufferWaterMark().low());
+        Assert.assertEquals(32 * 1024, config.getWriteBufferWaterMark().high());
+        Assert.assertEquals(Integer.valueOf(3_000), config.getConnectTimeoutMillis());
+        Assert.assertSame(PooledByteBufAllocator.DEFAULT, config.getAllocator());
+
+        var options = configure(config, Transport.NIO);
+        Assert.assertEquals(Boolean.TRUE, options.option(ChannelOption.TCP_NODELAY));
+        Assert.assertEquals(3_000, (int) options.option(ChannelOption.CONNECT_TIMEOUT_MILLIS));
+        Assert.assertSame(PooledByteBufAllocator.DEFAULT, options.option(ChannelOption.ALLOCATOR));
+        Assert.assertSame(config.getWriteBufferWaterMark(), options.option(ChannelOption.WRITE_BUFFER_WATER_MARK));
+        // left to the OS
+        Assert.assertNull(options.option(ChannelOption.SO_RCVBUF));
+        Assert.assertNull(options.option(ChannelOption.SO_SNDBUF));
+    }
+
+    @Test
+    public void throughput() {
+        var config = new NSQConfig();
+        config.setTransportProfile(TransportProfile.THROUGHPUT);
+        var options = configure(config, Transport.NIO);
+        Assert.assertEquals(1 << 20, (int) options.option(ChannelOption.SO_RCVBUF));
+        Assert.assertEquals(1 << 20, (int) options.option(ChannelOption.SO_SNDBUF));
+        WriteBufferWaterMark mark = options.option(ChannelOption.WRITE_BUFFER_WATER_MARK);
+        Assert.assertEquals(256 * 1024, mark.low());
+        Assert.assertEquals(1 << 20, mark.high());
+        Assert.assertEquals(10_000, (int) options.option(ChannelOption.CONNECT_TIMEOUT_MILLIS));
+
+        // changed after the profile
+        config.setReceiveBufferSize(null);
+        Assert.assertNull(configure(config, Transport.NIO).option(ChannelOption.SO_RCVBUF));
+    }
+
+    @Test
+    public void unset() {
+        var config = new NSQConfig();
+        var bootstrap = new Bootstrap();
+        Connection.configure(bootstrap, config, Transport.NIO);
+        Assert.assertTrue(bootstrap.config().options().isEmpty());
+
+        // only for epoll channels
+        config.setEpollMode(EpollMode.LEVEL_TRIGGERED);
+        Assert.assertNull(configure(config, Transport.NIO).option(EpollChannelOption.EPOLL_MODE));
+        Assert.assertEquals(EpollMode.LEVEL_TRIGGERED, configure(config, Transport.EPOLL).option(EpollChannelOption.EPOLL_MODE));
+    }
+
+    @Test
+    public void nullProfile() {
+        var config = new NSQConfig();
+        Assert.assertThrows(IllegalArgumentException.class, () -> config.setTransportProfile(null));
+        Assert.assertThrows(IllegalArgumentException.class, () -> config.setTransport(null));
+    }
+
+    private static Options configure(NSQConfig config, Transport transport) {
+        var bootstrap = new Bootstrap();
+        Connection.configure(bootstrap, config, transport);
+        return new Options(bootstrap);
+    }
+
+    private static class Options {
+        private final Bootstrap bootstrap;
+
+        Options(Bootstrap bootstrap) {
+            this.bootstrap = bootstrap;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T option(ChannelOption<T> option) {
+            return (T) bootstrap.config().options().get(option);
+        }
+    }
+
+}
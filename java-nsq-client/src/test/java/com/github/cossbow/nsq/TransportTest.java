@@ -0,0 +1,43 @@
+package com.github.cossbow.nsq;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransportTest {
+
+    @Test
+    public void fallback() {
+        Assert.assertEquals(Transport.NIO, Transport.select(Transport.NIO));
+        var auto = Transport.select(Transport.AUTO);
+        Assert.assertTrue(auto.isAvailable());
+        Assert.assertNotEquals(Transport.AUTO, auto);
+        if (!Transport.IO_URING.isAvailable()) {
+            // no io_uring module on the test classpath
+            Assert.assertEquals(auto, Transport.select(Transport.IO_URING));
+        }
+        Assert.assertEquals(auto.socketChannel(), Transport.AUTO.socketChannel());
+    }
+
+    @Test
+    public void ioUringUnavailable() {
+        if (Transport.IO_URING.isAvailable()) {
+            Assert.assertNotNull(Transport.IO_URING.socketChannel());
+            return;
+        }
+        var e = Assert.assertThrows(IllegalStateException.class, Transport.IO_URING::socketChannel);
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("io_uring"));
+        Assert.assertThrows(IllegalStateException.class, () -> Transport.IO_URING.newEventLoopGroup(1, Thread::new));
+    }
+
+    @Test
+    public void ofGroup() {
+        var group = new NioEventLoopGroup(1);
+        try {
+            Assert.assertEquals(Transport.NIO, Transport.of(group));
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+}
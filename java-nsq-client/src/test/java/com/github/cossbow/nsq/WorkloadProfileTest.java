@@ -0,0 +1,49 @@
+package com.github.cossbow.nsq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkloadProfileTest {
+
+    @Test
+    public void apply() {
+        var config = new NSQConfig();
+        config.setWorkloadProfile(WorkloadProfile.LOW_LATENCY);
+        Assert.assertEquals(Integer.valueOf(-1), config.getOutputBufferTimeout());
+        Assert.assertEquals(Integer.valueOf(10_000), config.getHeartbeatInterval());
+        Assert.assertEquals(0, config.getFlushConsolidation());
+        Assert.assertTrue(config.getMaxInFlight().isEmpty());
+        Assert.assertTrue(new String(config.toBytes()).contains("\"output_buffer_timeout\":-1"));
+
+        config.setWorkloadProfile(WorkloadProfile.HIGH_THROUGHPUT);
+        Assert.assertEquals(Integer.valueOf(64 * 1024), config.getOutputBufferSize());
+        Assert.assertEquals(Integer.valueOf(250), config.getOutputBufferTimeout());
+        Assert.assertNull(config.getHeartbeatInterval());
+        Assert.assertEquals(Integer.valueOf(500), config.getMaxInFlight().orElseThrow());
+        Assert.assertEquals(256, config.getFlushConsolidation());
+        Assert.assertTrue(config.isConsolidateWhenNoReadInProgress());
+    }
+
+    @Test
+    public void applyReverse() {
+        var config = new NSQConfig();
+        config.setWorkloadProfile(WorkloadProfile.HIGH_THROUGHPUT);
+        config.setWorkloadProfile(WorkloadProfile.LOW_LATENCY);
+        Assert.assertNull(config.getOutputBufferSize());
+        Assert.assertEquals(Integer.valueOf(-1), config.getOutputBufferTimeout());
+        Assert.assertEquals(Integer.valueOf(10_000), config.getHeartbeatInterval());
+        Assert.assertTrue(config.getMaxInFlight().isEmpty());
+        Assert.assertEquals(0, config.getFlushConsolidation());
+        Assert.assertFalse(config.isConsolidateWhenNoReadInProgress());
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> config.setWorkloadProfile(null));
+    }
+
+    @Test
+    public void forRate() {
+        Assert.assertEquals(WorkloadProfile.LOW_LATENCY, WorkloadProfile.forRate(0));
+        Assert.assertEquals(WorkloadProfile.BALANCED, WorkloadProfile.forRate(300));
+        Assert.assertEquals(WorkloadProfile.HIGH_THROUGHPUT, WorkloadProfile.forRate(5000));
+    }
+
+}
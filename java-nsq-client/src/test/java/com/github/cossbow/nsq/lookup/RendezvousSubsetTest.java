@@ -0,0 +1,61 @@
+package com.github.cossbow.nsq.lookup;
+
+import com.github.cossbow.nsq.ServerAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class RendezvousSubsetTest {
+
+    private static Set<ServerAddress> nodes(int n) {
+        var nodes = new HashSet<ServerAddress>();
+        for (int i = 0; i < n; i++) {
+            nodes.add(new ServerAddress("10.0." + i / 256 + "." + i % 256, 4150));
+        }
+        return nodes;
+    }
+
+    @Test
+    public void deterministic() {
+        var nodes = nodes(150);
+        var a = new RendezvousSubset("consumer-7", 5).select(nodes);
+        var b = new RendezvousSubset("consumer-7", 5).select(new HashSet<>(nodes));
+        Assert.assertEquals(5, a.size());
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(3, new RendezvousSubset("consumer-7", 5).select(nodes(3)).size());
+    }
+
+    @Test
+    public void coverage() {
+        var nodes = nodes(150);
+        var size = RendezvousSubset.sizeFor(150, 300, 1e-6);
+        Assert.assertTrue("size " + size, size < 15);
+        var covered = new HashSet<ServerAddress>();
+        for (int i = 0; i < 300; i++) {
+            covered.addAll(new RendezvousSubset("consumer-" + i, size).select(nodes));
+        }
+        Assert.assertEquals(nodes, covered);
+    }
+
+    @Test
+    public void minimalReshuffle() {
+        var nodes = nodes(150);
+        var removed = nodes.iterator().next();
+        var fewer = new HashSet<>(nodes);
+        fewer.remove(removed);
+        for (int i = 0; i < 300; i++) {
+            var subset = new RendezvousSubset("consumer-" + i, 5);
+            var before = subset.select(nodes);
+            var after = new HashSet<>(subset.select(fewer));
+            if (before.contains(removed)) {
+                after.retainAll(before);
+                Assert.assertEquals(4, after.size());
+            } else {
+                Assert.assertEquals(before, after);
+            }
+        }
+    }
+
+}
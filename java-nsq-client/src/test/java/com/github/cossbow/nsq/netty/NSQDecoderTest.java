@@ -0,0 +1,94 @@
+package com.github.cossbow.nsq.netty;
+
+import com.github.cossbow.nsq.frames.MessageFrame;
+import com.github.cossbow.nsq.frames.ResponseFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class NSQDecoderTest {
+
+    private static final String ID = "0a1b2c3d4e5f6789";
+
+    private static ByteBuf response(String s) {
+        var data = s.getBytes(StandardCharsets.US_ASCII);
+        return Unpooled.buffer().writeInt(4 + data.length).writeInt(0).writeBytes(data);
+    }
+
+    private static ByteBuf messageFrame(String body) {
+        var data = body.getBytes(StandardCharsets.UTF_8);
+        var buf = Unpooled.buffer().writeInt(4 + 27 + data.length).writeInt(2)
+                .writeLong(1_600_000_000_000_000_000L).writeShort(3).writeByte(0);
+        buf.writeCharSequence(ID, StandardCharsets.US_ASCII);
+        return buf.writeBytes(data);
+    }
+
+    @Test
+    public void splitFrames() {
+        var channel = new EmbeddedChannel(new NSQDecoder());
+        var bytes = Unpooled.wrappedBuffer(response("_heartbeat_"), messageFrame("hello"), response("OK"));
+        // deliver in small pieces
+        while (bytes.isReadable()) {
+            channel.writeInbound(bytes.readRetainedSlice(Math.min(7, bytes.readableBytes())));
+        }
+        bytes.release();
+
+        ResponseFrame heartbeat = channel.readInbound();
+        Assert.assertSame(ResponseFrame.HEARTBEAT, heartbeat);
+        Assert.assertTrue(heartbeat.isHeartbeat());
+
+        MessageFrame message = channel.readInbound();
+        Assert.assertEquals(ID, message.getId().toString());
+        Assert.assertEquals(3, message.getAttempts());
+        Assert.assertEquals("hello", message.getBuf().toString(StandardCharsets.UTF_8));
+        message.getBuf().release();
+
+        ResponseFrame ok = channel.readInbound();
+        Assert.assertSame(ResponseFrame.OK, ok);
+        Assert.assertNull(channel.readInbound());
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test
+    public void unknownResponse() {
+        var channel = new EmbeddedChannel(new NSQDecoder());
+        channel.writeInbound(response("OKAY"), response("CLOSE_WAIT"));
+        ResponseFrame okay = channel.readInbound();
+        Assert.assertNotSame(ResponseFrame.OK, okay);
+        Assert.assertEquals("OKAY", okay.getMessage());
+        Assert.assertSame(ResponseFrame.CLOSE_WAIT, channel.readInbound());
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test
+    public void bodyIsSlice() {
+        var channel = new EmbeddedChannel(new NSQDecoder());
+        var frame = messageFrame("zero copy");
+        channel.writeInbound(frame);
+        MessageFrame message = channel.readInbound();
+        var body = message.getBuf();
+        Assert.assertSame(frame, body.unwrap());
+        body.release();
+        Assert.assertEquals(0, frame.refCnt());
+    }
+
+    @Test
+    public void takeBuffered() {
+        var decoder = new NSQDecoder();
+        decoder.setSingleDecode(true);
+        var channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(Unpooled.wrappedBuffer(response("{\"version\":\"1.2.0\"}"),
+                Unpooled.wrappedBuffer(new byte[]{1, 2, 3})));
+        ResponseFrame identify = channel.readInbound();
+        Assert.assertTrue(identify.getMessage().contains("version"));
+        var leftover = decoder.takeBuffered();
+        Assert.assertEquals(3, leftover.readableBytes());
+        leftover.release();
+        channel.finish();
+    }
+
+}
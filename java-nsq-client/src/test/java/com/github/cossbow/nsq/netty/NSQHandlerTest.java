@@ -0,0 +1,65 @@
+package com.github.cossbow.nsq.netty;
+
+import com.github.cossbow.nsq.FakeNsqd;
+import com.github.cossbow.nsq.NSQConfig;
+import com.github.cossbow.nsq.NSQConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class NSQHandlerTest {
+
+    private static final int MESSAGES = 200;
+
+    @Test
+    public void frameOrder() throws Exception {
+        var callbacks = Executors.newSingleThreadExecutor();
+        try (var nsqd = new FakeNsqd()) {
+            var received = new CopyOnWriteArrayList<String>();
+            var consumer = new NSQConsumer<>(nsqd.lookup(), "orders", "billing", MESSAGES, message -> {
+                received.add(message.getObj());
+                message.finished();
+            }, new NSQConfig(), in -> new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+            consumer.setExecutor(callbacks).start();
+            var finished = new ArrayList<String>();
+            var nops = 0;
+            try {
+                nsqd.expect("RDY ");
+                // every message in one write, with heartbeats in between
+                nsqd.write(buf -> {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        FakeNsqd.writeMessage(buf, FakeNsqd.id(i), 1, Integer.toString(i));
+                        if (i % 50 == 0) {
+                            FakeNsqd.writeHeartbeat(buf);
+                        }
+                    }
+                });
+                while (finished.size() < MESSAGES) {
+                    var line = nsqd.poll(10_000);
+                    Assert.assertNotNull(line);
+                    if (line.startsWith("FIN ")) {
+                        finished.add(line.substring(4));
+                    } else if (line.equals("NOP")) {
+                        nops++;
+                    }
+                }
+            } finally {
+                consumer.shutdownGracefully().get(10, TimeUnit.SECONDS);
+            }
+
+            for (int i = 0; i < MESSAGES; i++) {
+                Assert.assertEquals(Integer.toString(i), received.get(i));
+                Assert.assertEquals(FakeNsqd.id(i), finished.get(i));
+            }
+            Assert.assertEquals(MESSAGES / 50, nops);
+        } finally {
+            callbacks.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.github.cossbow.nsq.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FairSchedulerTest {
+
+    @Test
+    public void weighted() throws InterruptedException {
+        var scheduler = new FairScheduler(1);
+        var critical = scheduler.newLane("critical", 3);
+        var batch = scheduler.newLane("batch", 1);
+
+        var block = new CountDownLatch(1);
+        var done = new CountDownLatch(80);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        batch.execute(() -> {
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 40; i++) {
+            batch.execute(() -> {
+                order.add("batch");
+                done.countDown();
+            });
+            critical.execute(() -> {
+                order.add("critical");
+                done.countDown();
+            });
+        }
+        Assert.assertEquals(1, critical.getLimit());
+        block.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        var first = order.subList(0, 40);
+        var c = first.stream().filter("critical"::equals).count();
+        Assert.assertTrue("critical got " + c, c >= 28 && c <= 32);
+
+        batch.close();
+        critical.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void minShare() throws InterruptedException {
+        var scheduler = new FairScheduler(2, 1);
+        var flood = scheduler.newLane("flood", 100);
+        var small = scheduler.newLane("small", 1);
+
+        // one long task of flood holds a worker, the other one is held until all is queued
+        var started = new CountDownLatch(2);
+        var longTask = new CountDownLatch(1);
+        var block = new CountDownLatch(1);
+        for (var latch : List.of(longTask, block)) {
+            flood.execute(() -> {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        var done = new CountDownLatch(51);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 50; i++) {
+            flood.execute(() -> {
+                order.add("flood");
+                done.countDown();
+            });
+        }
+        small.execute(() -> {
+            order.add("small");
+            done.countDown();
+        });
+        block.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // by weight alone it would wait for all 50
+        Assert.assertEquals("small", order.get(0));
+
+        longTask.countDown();
+        flood.close();
+        small.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void minShareRotates() throws InterruptedException {
+        var scheduler = new FairScheduler(1, 1);
+        var holder = scheduler.newLane("holder", 1);
+        var a = scheduler.newLane("a", 1);
+        var b = scheduler.newLane("b", 1);
+
+        var started = new CountDownLatch(1);
+        var block = new CountDownLatch(1);
+        holder.execute(() -> {
+            started.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // both lanes are below the minimum share whenever the worker looks
+        var done = new CountDownLatch(20);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 10; i++) {
+            a.execute(() -> {
+                order.add("a");
+                done.countDown();
+            });
+            b.execute(() -> {
+                order.add("b");
+                done.countDown();
+            });
+        }
+        block.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        var first = order.subList(0, 4);
+        Assert.assertEquals(order.toString(), 2, first.stream().filter("a"::equals).count());
+        Assert.assertEquals(order.toString(), 2, first.stream().filter("b"::equals).count());
+
+        holder.close();
+        a.close();
+        b.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void share() throws InterruptedException {
+        var scheduler = new FairScheduler(8, 2);
+        var a = scheduler.newLane("a", 3);
+        var b = scheduler.newLane("b", 1);
+        Assert.assertEquals(8, a.getLimit());
+        Assert.assertEquals(8, b.getLimit());
+
+        var block = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        // an idle lane counts itself in, as it would once busy
+        b.execute(blocked);
+        Assert.assertEquals(6, a.getLimit());
+        Assert.assertEquals(8, b.getLimit());
+
+        var c = scheduler.newLane("c", 4);
+        c.execute(blocked);
+        Assert.assertEquals(6, c.getLimit());
+        Assert.assertEquals(3, a.getLimit());
+        // 8 / 5 by weight, raised to the minimum share
+        Assert.assertEquals(2, b.getLimit());
+
+        block.countDown();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (a.getLimit() != 8 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(8, a.getLimit());
+        Assert.assertEquals(8, b.getLimit());
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> new FairScheduler(2, 3));
+
+        a.close();
+        b.close();
+        c.close();
+        scheduler.shutdown();
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.github.cossbow.nsq.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimerTest {
+
+    @Test
+    public void manyTimeouts() throws InterruptedException {
+        var n = 50_000;
+        var latch = new CountDownLatch(n / 2);
+        var cancelledFired = new AtomicInteger();
+        for (int i = 0; i < n; i++) {
+            var delay = 20 + i % 100;
+            if (i % 2 == 0) {
+                NSQUtil.TIMER.newTimeout(t -> latch.countDown(), delay, TimeUnit.MILLISECONDS);
+            } else {
+                NSQUtil.TIMER.newTimeout(t -> cancelledFired.incrementAndGet(), delay, TimeUnit.MILLISECONDS).cancel();
+            }
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, cancelledFired.get());
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.github.cossbow.pubsub;
+
+import com.github.cossbow.nsq.NSQMessage;
+import com.github.cossbow.nsq.util.NSQUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Where a message goes instead of being dropped when its attempts run out, or at once
+ * on selected exceptions. The original body and the attempt metadata are published to
+ * the dead-letter topic as a JSON {@link DeadLetter}, then the message is finished.
+ */
+public class DeadLetterPolicy {
+
+    private final NsqPublisher publisher;
+    private final String topic;
+    private volatile int maxAttempts = 0;
+    private volatile boolean exhaustDeferred = false;
+    private final List<Class<? extends Throwable>> exceptions = new CopyOnWriteArrayList<>();
+
+
+    public DeadLetterPolicy(NsqPublisher publisher, String topic) {
+        if (null == publisher) {
+            throw new IllegalArgumentException("'publisher' can not be null");
+        }
+        if (null == topic || topic.isEmpty()) {
+            throw new IllegalArgumentException("'topic' can not be empty");
+        }
+        this.publisher = publisher;
+        this.topic = topic;
+    }
+
+    /**
+     * Dead-letter once a message has been delivered this many times, even if the
+     * subscription would retry it again. 0 (default) follows the subscription's limit.
+     */
+    public DeadLetterPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("'maxAttempts' can not be negative");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Also count retries asked for by {@link RetryDeferEx} against {@link #setMaxAttempts(int)}.
+     * Off by default: a deferred retry is planned, not a failure, so it is retried as asked.
+     */
+    public DeadLetterPolicy setExhaustDeferred(boolean exhaustDeferred) {
+        this.exhaustDeferred = exhaustDeferred;
+        return this;
+    }
+
+    /**
+     * Dead-letter at once on this exception or its subclasses, without retrying.
+     */
+    public DeadLetterPolicy addException(Class<? extends Throwable> type) {
+        exceptions.add(type);
+        return this;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    boolean matches(Throwable ex) {
+        for (var type : exceptions) {
+            if (type.isInstance(ex)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean exhausted(int attempts, Throwable ex) {
+        if (ex instanceof RetryDeferEx && !exhaustDeferred) {
+            return false;
+        }
+        var max = maxAttempts;
+        return max > 0 && attempts >= max;
+    }
+
+    /**
+     * The body must still be readable, so the consumer has to retain it.
+     */
+    CompletableFuture<Void> forward(String topic, String channel, NSQMessage<?> message, Throwable ex) {
+        var letter = new DeadLetter();
+        letter.topic = topic;
+        letter.channel = channel;
+        letter.id = message.getId().toString();
+        letter.attempts = message.getAttempts();
+        letter.timestamp = message.getTimestamp();
+        if (null != ex) {
+            letter.error = ex.getClass().getName();
+            letter.errorMessage = ex.getMessage();
+        }
+        var body = message.getMessage();
+        if (null != body) {
+            letter.body = Base64.getEncoder().encodeToString(body);
+        }
+        return publisher.publish(this.topic, NSQUtil.toJson(letter).getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    public static class DeadLetter {
+        private String topic;
+        private String channel;
+        private String id;
+        private int attempts;
+        private long timestamp;
+        private String error;
+        private String errorMessage;
+        /**
+         * base64 of the original body, compressed bodies are inflated
+         */
+        private String body;
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public byte[] getBody() {
+            return null == body ? null : Base64.getDecoder().decode(body);
+        }
+    }
+
+}
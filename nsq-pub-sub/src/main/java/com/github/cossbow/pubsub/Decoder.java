@@ -1,9 +1,13 @@
 package com.github.cossbow.pubsub;
 
 
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public
 interface Decoder {
@@ -27,4 +31,17 @@ interface Decoder {
         return decode(new ByteArrayInputStream(s), type);
     }
 
+    /**
+     * 直接从消息体视图解码，二进制格式可覆盖此方法避免流包装和拷贝。
+     * 视图只读，且在解码后即释放，不可保留引用。
+     *
+     * @param buf  消息体
+     * @param type
+     * @param <T>
+     * @return
+     */
+    default <T> T decode(ByteBuffer buf, Class<T> type) throws IOException {
+        return decode(new ByteBufInputStream(Unpooled.wrappedBuffer(buf)), type);
+    }
+
 }
@@ -17,7 +17,7 @@ public interface NsqSubscriber {
     Decoder defaultDecoder = NsqUtil.getDefaultDecoder();
 
     default <T> ThrowoutFunction<InputStream, T, IOException> newDecoder(Decoder decoder, Class<T> type) {
-        return is -> decoder.decode(is, type);
+        return NsqUtil.newDecoder(decoder, type);
     }
 
     //
@@ -1,10 +1,15 @@
 package com.github.cossbow.pubsub;
 
+import com.github.cossbow.nsq.ConcurrencyLimit;
 import com.github.cossbow.nsq.NSQConfig;
 import com.github.cossbow.nsq.NSQConsumer;
 import com.github.cossbow.nsq.NSQMessage;
+import com.github.cossbow.nsq.StatsAutoscaler;
+import com.github.cossbow.nsq.WorkloadProfile;
 import com.github.cossbow.nsq.exceptions.NSQException;
 import com.github.cossbow.nsq.lookup.NSQLookup;
+import com.github.cossbow.nsq.lookup.RendezvousSubset;
+import com.github.cossbow.nsq.util.FairScheduler;
 import com.github.cossbow.nsq.util.ThrowoutFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,11 +35,22 @@ class NsqSubscriberImpl implements NsqSubscriber {
     private long lookupPeriodMillis;
     private int defaultAttemptLimit;
     private int defaultAttemptDelay;
+    private volatile long localRetryThreshold = 0;
+    private volatile DeadLetterPolicy deadLetterPolicy;
+    private volatile int autoscaleMin, autoscaleMax;
+    private volatile long autoscalePeriodMillis, autoscaleDepth;
+    private final Map<String, StatsAutoscaler> autoscalers = new ConcurrentHashMap<>();
+    private volatile RendezvousSubset subset;
+    private volatile WorkloadProfile workloadProfile;
+    private volatile boolean adaptiveWorkload;
 
     private String userAgent;
 
     private final Map<String, Map<String, NSQConsumer<?>>> consumers = new ConcurrentHashMap<>();
 
+    private volatile FairScheduler scheduler;
+    private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+
     public NsqSubscriberImpl(
             NSQLookup nsqLookup, long lookupPeriodMillis, int defaultAttemptLimit,
             int defaultAttemptDelay, int schedulerPoolSize,
@@ -65,10 +81,115 @@ class NsqSubscriberImpl implements NsqSubscriber {
     private NSQConfig newConfig() {
         var config = new NSQConfig();
         config.setUserAgent(userAgent);
+        var profile = workloadProfile;
+        if (null != profile) {
+            config.setWorkloadProfile(profile);
+        }
         return config;
     }
 
 
+    /**
+     * Run the handlers of all subscriptions on a shared scheduler, each subscription
+     * getting a share by its weight instead of competing on the default executor.
+     * Affects subscriptions made afterwards.
+     */
+    public void setScheduler(FairScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Weight of a subscription on the scheduler, 1 by default. Set before subscribing.
+     */
+    public void setWeight(String topic, String channel, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("'weight' must be positive");
+        }
+        weights.put(topic + '[' + channel + ']', weight);
+    }
+
+    /**
+     * Retry delays up to this many milliseconds are waited out locally instead of a REQ,
+     * 0 disables it. Affects subscriptions made afterwards.
+     */
+    public void setLocalRetryThreshold(long localRetryThreshold) {
+        if (localRetryThreshold < 0) {
+            throw new IllegalArgumentException("'localRetryThreshold' can not be negative");
+        }
+        this.localRetryThreshold = localRetryThreshold;
+    }
+
+    /**
+     * Publish messages to a dead-letter topic instead of dropping them when their attempts
+     * run out. Affects subscriptions made afterwards, which then keep each body until the
+     * message is finished.
+     */
+    public void setDeadLetterPolicy(DeadLetterPolicy deadLetterPolicy) {
+        this.deadLetterPolicy = deadLetterPolicy;
+    }
+
+    /**
+     * Scale the messages in flight of each subscription between min and max by the channel
+     * depth that nsqd reports, polled every period. Affects subscriptions made afterwards.
+     *
+     * @param scaleUpDepth grow while the depth over all nodes is above this
+     */
+    public void setAutoscale(int min, int max, long periodMillis, long scaleUpDepth) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("illegal autoscale bounds: " + min + ", " + max);
+        }
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("'periodMillis' must be positive");
+        }
+        this.autoscaleMin = min;
+        this.autoscaleMax = max;
+        this.autoscalePeriodMillis = periodMillis;
+        this.autoscaleDepth = scaleUpDepth;
+    }
+
+    /**
+     * Connect each subscription to only {@code size} of the nodes serving its topic, chosen by
+     * rendezvous hashing on {@code instanceId}, which must be stable and unique per instance.
+     * Affects subscriptions made afterwards.
+     */
+    public void setSubset(String instanceId, int size) {
+        this.subset = new RendezvousSubset(instanceId, size);
+    }
+
+    /**
+     * Buffering, heartbeat and flushing of the subscriptions, null keeps nsqd's defaults.
+     * Affects subscriptions made afterwards.
+     *
+     * @param adaptive re-pick the buffering by the observed message rate on reconnect
+     */
+    public void setWorkloadProfile(WorkloadProfile profile, boolean adaptive) {
+        this.workloadProfile = profile;
+        this.adaptiveWorkload = adaptive;
+    }
+
+    private void schedule(NSQConsumer<?> consumer, String topic, String channel) {
+        consumer.setSubset(subset);
+        consumer.setAdaptiveWorkload(adaptiveWorkload);
+        var name = topic + '[' + channel + ']';
+        ConcurrencyLimit limit = null;
+        var s = scheduler;
+        if (null != s) {
+            var lane = s.newLane(name, weights.getOrDefault(name, 1));
+            consumer.setExecutor(lane);
+            limit = lane;
+        }
+        if (autoscaleMax > 0) {
+            var autoscaler = new StatsAutoscaler(nsqLookup, topic, channel, autoscaleMin, autoscaleMax)
+                    .setScaleUpDepth(autoscaleDepth)
+                    .start(autoscalePeriodMillis);
+            autoscalers.put(name, autoscaler);
+            limit = null == limit ? autoscaler : ConcurrencyLimit.min(limit, autoscaler);
+        }
+        if (null != limit) {
+            consumer.setConcurrencyLimit(limit);
+        }
+    }
+
     private void addConsumer(String topic, String channel, Supplier<NSQConsumer<?>> supplier) {
         synchronized (consumers) {
             final var m = consumers.computeIfAbsent(topic, t -> new ConcurrentHashMap<>());
@@ -96,11 +217,6 @@ class NsqSubscriberImpl implements NsqSubscriber {
         }
     }
 
-    @Override
-    public <T> ThrowoutFunction<InputStream, T, IOException> newDecoder(Decoder decoder, Class<T> type) {
-        return is -> decoder.decode(is, type);
-    }
-
     @Override
     public <T> void subscribe(String topic, String channel, ThrowoutFunction<InputStream, T, IOException> decoder, Consumer<T> consumer, int concurrency) {
         subscribe(topic, channel, decoder, consumer, concurrency, getAttemptsDelay(defaultAttemptLimit));
@@ -117,6 +233,7 @@ class NsqSubscriberImpl implements NsqSubscriber {
         }
 
         addConsumer(topic, channel, () -> {
+            final var dlq = deadLetterPolicy;
             final Consumer<NSQMessage<T>> callback = message -> {
                 try {
                     var t = message.getObj();
@@ -124,12 +241,15 @@ class NsqSubscriberImpl implements NsqSubscriber {
                     consumer.accept(t);
                     message.finished();
                 } catch (Throwable e) {
-                    dealErrorOrAttempt(message, attemptDelay, topic, e);
+                    dealErrorOrAttempt(message, attemptDelay, topic, channel, dlq, e);
                 }
             };
             var config = newConfig();
             var c = new NSQConsumer<>(nsqLookup, topic, channel, concurrency, callback, config, decoder, EXCEPTION_HANDLER);
             c.setLookupPeriod(lookupPeriodMillis);
+            c.setLocalRetryThreshold(localRetryThreshold);
+            c.setRetainBody(null != dlq);
+            schedule(c, topic, channel);
             c.start();
             return c;
         });
@@ -165,6 +285,7 @@ class NsqSubscriberImpl implements NsqSubscriber {
         }
 
         addConsumer(topic, channel, () -> {
+            final var dlq = deadLetterPolicy;
             final Consumer<NSQMessage<T>> callback = message -> {
                 try {
                     var t = message.getObj();
@@ -180,28 +301,42 @@ class NsqSubscriberImpl implements NsqSubscriber {
                             message.finished();
                         } else {
                             if (ex instanceof CompletionException) ex = ex.getCause();
-                            dealErrorOrAttempt(message, attemptDelay, topic, ex);
+                            dealErrorOrAttempt(message, attemptDelay, topic, channel, dlq, ex);
                         }
                     });
 
                 } catch (Throwable e) {
-                    dealErrorOrAttempt(message, attemptDelay, topic, e);
+                    dealErrorOrAttempt(message, attemptDelay, topic, channel, dlq, e);
                 }
             };
             var config = newConfig();
             var c = new NSQConsumer<>(nsqLookup, topic, channel, concurrency, callback, config, decoder, EXCEPTION_HANDLER);
             c.setLookupPeriod(lookupPeriodMillis);
+            c.setLocalRetryThreshold(localRetryThreshold);
+            c.setRetainBody(null != dlq);
+            schedule(c, topic, channel);
             c.start();
             return c;
         });
     }
 
-    private void dealErrorOrAttempt(NSQMessage<?> message, IntToLongFunction attemptDelay, String topic, Throwable ex) {
-        long delay = attemptDelay.applyAsLong(message.getAttempts());
+    void dealErrorOrAttempt(NSQMessage<?> message, IntToLongFunction attemptDelay, String topic, String channel,
+                            DeadLetterPolicy dlq, Throwable ex) {
+        // a recycled message must not be read after requeue
+        final int attempts = message.getAttempts();
+        long delay = attemptDelay.applyAsLong(attempts);
         boolean onlyRetry = ex instanceof RetryDeferEx;
+        if (null != dlq && (dlq.matches(ex) || dlq.exhausted(attempts, ex))) {
+            deadLetter(message, topic, channel, dlq, ex);
+            return;
+        }
         if (onlyRetry) {
-            delay = ((RetryDeferEx) ex).getDefer(attemptDelay.applyAsLong(message.getAttempts()));
+            delay = ((RetryDeferEx) ex).getDefer(delay);
         } else if (!(ex instanceof RuntimeException)) {
+            if (null != dlq) {
+                deadLetter(message, topic, channel, dlq, ex);
+                return;
+            }
             message.finished();
             log.error("consume(" + topic + ") message error, no attempt", ex);
             return;
@@ -209,19 +344,21 @@ class NsqSubscriberImpl implements NsqSubscriber {
         // exception occur, retry
 
         if (delay > 0) {
-            message.requeue((int) delay);
+            message.retry((int) delay);
             if (onlyRetry) {
-                log.debug("consume({}) message need retry: attempt {} times, try {}ms latter", topic, message.getAttempts(), delay);
+                log.debug("consume({}) message need retry: attempt {} times, try {}ms latter", topic, attempts, delay);
             } else {
-                log.warn("consume({}) message error: attempt {} times, try {}ms latter", topic, message.getAttempts(), delay);
+                log.warn("consume({}) message error: attempt {} times, try {}ms latter", topic, attempts, delay);
             }
         } else if (delay == 0) {
             message.requeue();
             if (onlyRetry) {
-                log.debug("consume({}) message need retry: attempt {} times, try immediately", topic, message.getAttempts());
+                log.debug("consume({}) message need retry: attempt {} times, try immediately", topic, attempts);
             } else {
-                log.warn("consume({}) message error: attempt {} times, try immediately", topic, message.getAttempts());
+                log.warn("consume({}) message error: attempt {} times, try immediately", topic, attempts);
             }
+        } else if (null != dlq) {
+            deadLetter(message, topic, channel, dlq, ex);
         } else {
             message.finished();
             if (onlyRetry) {
@@ -232,6 +369,25 @@ class NsqSubscriberImpl implements NsqSubscriber {
         }
     }
 
+    private void deadLetter(NSQMessage<?> message, String topic, String channel, DeadLetterPolicy dlq, Throwable ex) {
+        final int attempts = message.getAttempts();
+        CompletableFuture<Void> future;
+        try {
+            future = dlq.forward(topic, channel, message, ex);
+        } catch (Throwable e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((v, e) -> {
+            if (null == e) {
+                message.finished();
+                log.warn("consume({}) message error: attempt {} times, sent to {}", topic, attempts, dlq.getTopic());
+            } else {
+                message.requeue(defaultAttemptDelay);
+                log.error("consume(" + topic + ") message error, dead-letter failed, try " + defaultAttemptDelay + "ms latter", e);
+            }
+        });
+    }
+
 
     //
     //
@@ -248,11 +404,16 @@ class NsqSubscriberImpl implements NsqSubscriber {
             if (null == c) {
                 return;
             }
-            try {
-                c.close();
-            } catch (IOException e) {
-                log.error("close", e);
+            var autoscaler = autoscalers.remove(topic + '[' + channel + ']');
+            if (null != autoscaler) {
+                autoscaler.close();
             }
+            c.shutdownGracefully().whenComplete((v, e) -> {
+                log.info("unsubscribe {}[{}] closed", topic, channel);
+                if (c.getExecutor() instanceof FairScheduler.Lane) {
+                    ((FairScheduler.Lane) c.getExecutor()).close();
+                }
+            });
         }
     }
 
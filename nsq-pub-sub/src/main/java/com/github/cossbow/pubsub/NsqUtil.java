@@ -1,6 +1,8 @@
 package com.github.cossbow.pubsub;
 
+import com.github.cossbow.nsq.MessageDecoder;
 import com.github.cossbow.nsq.util.ThrowoutFunction;
+import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,6 +54,24 @@ public class NsqUtil {
     }
 
 
+    /**
+     * 解码器同时支持流和消息体视图，后者免去拷贝
+     */
+    public static <T> MessageDecoder<T> newDecoder(Decoder decoder, Class<T> type) {
+        return new MessageDecoder<>() {
+            @Override
+            public T decode(ByteBuf body) throws IOException {
+                return decoder.decode(body.nioBuffer(), type);
+            }
+
+            @Override
+            public T apply(InputStream in) throws IOException {
+                return decoder.decode(in, type);
+            }
+        };
+    }
+
+
     //
     //
     //
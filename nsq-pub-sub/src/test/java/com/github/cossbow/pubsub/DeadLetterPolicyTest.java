@@ -0,0 +1,181 @@
+package com.github.cossbow.pubsub;
+
+import com.github.cossbow.nsq.MessageId;
+import com.github.cossbow.nsq.NSQMessage;
+import com.github.cossbow.nsq.lookup.StaticNSQLookup;
+import com.github.cossbow.nsq.util.NSQUtil;
+import com.github.cossbow.nsq.util.ThrowoutConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class DeadLetterPolicyTest {
+
+    private static class StubPublisher implements NsqPublisher {
+        final List<String> topics = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+        volatile boolean fail;
+
+        @Override
+        public CompletableFuture<Void> publish(String topic, int defer, byte[] value) {
+            if (fail) {
+                return CompletableFuture.failedFuture(new IOException("nsqd down"));
+            }
+            topics.add(topic);
+            bodies.add(new String(value, StandardCharsets.UTF_8));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> publish(String topic, int defer, Object value, Encoder encoder) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> publish(String topic, int defer, ThrowoutConsumer<OutputStream, IOException> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void disconnect() {
+        }
+    }
+
+    /**
+     * Records how it was acked instead of writing to a connection.
+     */
+    private static class StubMessage extends NSQMessage<Object> {
+        private final MessageId id = MessageId.of("0123456789abcdef");
+        private final int attempts;
+        private final byte[] body;
+        String ack;
+
+        StubMessage(int attempts, String body) {
+            super(null);
+            this.attempts = attempts;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public MessageId getId() {
+            return id;
+        }
+
+        @Override
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 1_600_000_000_000_000_000L;
+        }
+
+        @Override
+        public byte[] getMessage() {
+            return body;
+        }
+
+        @Override
+        public void finished() {
+            ack = "FIN";
+        }
+
+        @Override
+        public void requeue(int timeoutMillis) {
+            ack = "REQ " + timeoutMillis;
+        }
+
+        @Override
+        public void retry(int delayMillis) {
+            ack = "RETRY " + delayMillis;
+        }
+    }
+
+    private static class PoisonException extends IllegalStateException {
+    }
+
+    private final StubPublisher publisher = new StubPublisher();
+    private final NsqSubscriberImpl subscriber = new NsqSubscriberImpl(new StaticNSQLookup(),
+            60_000, 3, 1000, 1, "test");
+
+    @Test
+    public void matchesAndExhausted() {
+        var dlq = new DeadLetterPolicy(publisher, "orders.dead").addException(IllegalStateException.class);
+        Assert.assertTrue(dlq.matches(new IllegalStateException()));
+        Assert.assertTrue(dlq.matches(new PoisonException()));
+        Assert.assertFalse(dlq.matches(new RuntimeException()));
+
+        // follows the subscription's limit by default
+        Assert.assertFalse(dlq.exhausted(100, new RuntimeException()));
+        dlq.setMaxAttempts(3);
+        Assert.assertFalse(dlq.exhausted(2, new RuntimeException()));
+        Assert.assertTrue(dlq.exhausted(3, new RuntimeException()));
+
+        Assert.assertFalse(dlq.exhausted(5, new RetryDeferEx()));
+        dlq.setExhaustDeferred(true);
+        Assert.assertTrue(dlq.exhausted(5, new RetryDeferEx()));
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> dlq.setMaxAttempts(-1));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new DeadLetterPolicy(publisher, ""));
+    }
+
+    @Test
+    public void forward() {
+        var dlq = new DeadLetterPolicy(publisher, "orders.dead");
+        dlq.forward("orders", "billing", new StubMessage(4, "{\"id\":7}"), new IllegalStateException("boom")).join();
+
+        Assert.assertEquals(List.of("orders.dead"), publisher.topics);
+        var json = publisher.bodies.get(0);
+        var letter = NSQUtil.fromJson(json, DeadLetterPolicy.DeadLetter.class);
+        Assert.assertEquals("orders", letter.getTopic());
+        Assert.assertEquals("billing", letter.getChannel());
+        Assert.assertEquals("0123456789abcdef", letter.getId());
+        Assert.assertEquals(4, letter.getAttempts());
+        Assert.assertEquals(1_600_000_000_000_000_000L, letter.getTimestamp());
+        Assert.assertEquals(IllegalStateException.class.getName(), letter.getError());
+        Assert.assertEquals("boom", letter.getErrorMessage());
+        Assert.assertEquals("{\"id\":7}", new String(letter.getBody(), StandardCharsets.UTF_8));
+        Assert.assertTrue(json, json.contains("\"error_message\":\"boom\""));
+    }
+
+    @Test
+    public void deadLetterWhenExhausted() {
+        var dlq = new DeadLetterPolicy(publisher, "orders.dead").setMaxAttempts(3);
+        var message = new StubMessage(2, "a");
+        subscriber.dealErrorOrAttempt(message, attempts -> 100, "orders", "billing", dlq, new RuntimeException());
+        Assert.assertEquals("RETRY 100", message.ack);
+        Assert.assertTrue(publisher.topics.isEmpty());
+
+        message = new StubMessage(3, "a");
+        subscriber.dealErrorOrAttempt(message, attempts -> 100, "orders", "billing", dlq, new RuntimeException());
+        Assert.assertEquals("FIN", message.ack);
+        Assert.assertEquals(List.of("orders.dead"), publisher.topics);
+    }
+
+    @Test
+    public void retryDeferIsNotExhausted() {
+        var dlq = new DeadLetterPolicy(publisher, "orders.dead").setMaxAttempts(3);
+        var message = new StubMessage(10, "a");
+        subscriber.dealErrorOrAttempt(message, attempts -> 100, "orders", "billing", dlq, new RetryDeferEx(50));
+        Assert.assertEquals("RETRY 50", message.ack);
+        Assert.assertTrue(publisher.topics.isEmpty());
+    }
+
+    @Test
+    public void publishFailureRequeues() {
+        publisher.fail = true;
+        var dlq = new DeadLetterPolicy(publisher, "orders.dead").addException(PoisonException.class);
+        var message = new StubMessage(1, "a");
+        subscriber.dealErrorOrAttempt(message, attempts -> 100, "orders", "billing", dlq, new PoisonException());
+        // the subscription's default attempt delay
+        Assert.assertEquals("REQ 1000", message.ack);
+    }
+
+}
@@ -4,9 +4,11 @@ import com.github.cossbow.nsq.CompressType;
 import com.github.cossbow.nsq.NSQConfig;
 import com.github.cossbow.nsq.lookup.DefaultNSQLookup;
 import com.github.cossbow.nsq.lookup.NSQLookup;
+import com.github.cossbow.nsq.lookup.RendezvousSubset;
 import com.github.cossbow.pubsub.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
@@ -19,8 +21,11 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.core.env.StandardEnvironment;
 import org.xerial.snappy.Snappy;
 
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 
 @Configuration
@@ -97,19 +102,71 @@ public class NsqAutoConfiguration {
     @Bean(name = NSQ_SUBSCRIBER_BEAN_NAME)
     @ConditionalOnMissingBean
     NsqSubscriber nsqSubscriber(NSQLookup nsqLookup,
+                                ObjectProvider<NsqPublisher> publisher,
                                 StandardEnvironment environment) {
         var consumerAgent = Objects.requireNonNullElse(
                 properties.getUserAgent(),
                 environment.getProperty(
                         "spring.application.name",
                         "Java"));
-        return new NsqSubscriberImpl(
+        var subscriber = new NsqSubscriberImpl(
                 nsqLookup,
                 properties.getLookupPeriodMillis(),
                 properties.getDefaultAttemptLimit(),
                 properties.getDefaultAttemptDelay(),
                 properties.getSchedulerPoolSize(),
                 consumerAgent);
+        subscriber.setLocalRetryThreshold(properties.getLocalRetryThreshold());
+        if (null != properties.getDeadLetterTopic()) {
+            var dlq = new DeadLetterPolicy(publisher.getObject(), properties.getDeadLetterTopic());
+            dlq.setMaxAttempts(properties.getDeadLetterMaxAttempts());
+            dlq.setExhaustDeferred(properties.isDeadLetterExhaustDeferred());
+            subscriber.setDeadLetterPolicy(dlq);
+        }
+        if (properties.getAutoscaleMin() > 0) {
+            var max = properties.getAutoscaleMax() > 0 ? properties.getAutoscaleMax() : properties.getAutoscaleMin();
+            if (max < properties.getAutoscaleMin()) {
+                throw new IllegalArgumentException("mq.nsq.autoscale-max " + max +
+                        " must not be less than mq.nsq.autoscale-min " + properties.getAutoscaleMin());
+            }
+            subscriber.setAutoscale(properties.getAutoscaleMin(), max,
+                    TimeUnit.MINUTES.toMillis(properties.getMonitorQueryStatsPeriod()),
+                    properties.getAutoscaleDepth());
+        }
+        var subsetSize = subsetSize();
+        if (subsetSize > 0) {
+            subscriber.setSubset(instanceId(), subsetSize);
+        }
+        if (null != properties.getWorkloadProfile() || properties.isAdaptiveWorkload()) {
+            subscriber.setWorkloadProfile(properties.getWorkloadProfile(), properties.isAdaptiveWorkload());
+        }
+        return subscriber;
+    }
+
+    /**
+     * mq.nsq.subset-size, or else the smallest size leaving a node without consumers
+     * with at most mq.nsq.subset-miss-probability; 0 connects to all nodes.
+     */
+    private int subsetSize() {
+        if (properties.getSubsetSize() > 0) {
+            return properties.getSubsetSize();
+        }
+        if (properties.getSubsetNodes() > 0 && properties.getSubsetInstances() > 0) {
+            return RendezvousSubset.sizeFor(properties.getSubsetNodes(), properties.getSubsetInstances(),
+                    properties.getSubsetMissProbability());
+        }
+        return 0;
+    }
+
+    private String instanceId() {
+        if (null != properties.getInstanceId()) {
+            return properties.getInstanceId();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("no host name, set mq.nsq.instance-id", e);
+        }
     }
 
     //
@@ -1,5 +1,6 @@
 package com.github.cossbow.boot;
 
+import com.github.cossbow.nsq.WorkloadProfile;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 
@@ -27,12 +28,40 @@ public class NsqProperties {
 
     private long defaultBatchInterval = 100;
 
+    private long localRetryThreshold = 0;
+
+    private String deadLetterTopic;
+
+    private int deadLetterMaxAttempts = 0;
+
+    private boolean deadLetterExhaustDeferred = false;
+
     private String userAgent;
 
     private long monitorLookupNodesPeriod = 15;  // minutes
 
     private long monitorQueryStatsPeriod = 1;   // minutes
 
+    private int autoscaleMin = 0;   // 0: no autoscale
+
+    private int autoscaleMax = 0;   // 0: same as autoscale-min
+
+    private long autoscaleDepth = 1000;
+
+    private int subsetSize = 0;     // 0: by subset-nodes and subset-instances, or all nodes
+
+    private int subsetNodes = 0;
+
+    private int subsetInstances = 0;
+
+    private double subsetMissProbability = 1e-6;
+
+    private String instanceId;      // host name by default
+
+    private WorkloadProfile workloadProfile;    // nsqd defaults
+
+    private boolean adaptiveWorkload = false;
+
 
     public String getLookupAddress() {
         return lookupAddress;
@@ -82,6 +111,38 @@ public class NsqProperties {
         this.defaultBatchInterval = defaultBatchInterval;
     }
 
+    public long getLocalRetryThreshold() {
+        return localRetryThreshold;
+    }
+
+    public void setLocalRetryThreshold(long localRetryThreshold) {
+        this.localRetryThreshold = localRetryThreshold;
+    }
+
+    public String getDeadLetterTopic() {
+        return deadLetterTopic;
+    }
+
+    public void setDeadLetterTopic(String deadLetterTopic) {
+        this.deadLetterTopic = deadLetterTopic;
+    }
+
+    public int getDeadLetterMaxAttempts() {
+        return deadLetterMaxAttempts;
+    }
+
+    public void setDeadLetterMaxAttempts(int deadLetterMaxAttempts) {
+        this.deadLetterMaxAttempts = deadLetterMaxAttempts;
+    }
+
+    public boolean isDeadLetterExhaustDeferred() {
+        return deadLetterExhaustDeferred;
+    }
+
+    public void setDeadLetterExhaustDeferred(boolean deadLetterExhaustDeferred) {
+        this.deadLetterExhaustDeferred = deadLetterExhaustDeferred;
+    }
+
     public String getUserAgent() {
         return userAgent;
     }
@@ -105,4 +166,84 @@ public class NsqProperties {
     public void setMonitorQueryStatsPeriod(long monitorQueryStatsPeriod) {
         this.monitorQueryStatsPeriod = monitorQueryStatsPeriod;
     }
+
+    public int getAutoscaleMin() {
+        return autoscaleMin;
+    }
+
+    public void setAutoscaleMin(int autoscaleMin) {
+        this.autoscaleMin = autoscaleMin;
+    }
+
+    public int getAutoscaleMax() {
+        return autoscaleMax;
+    }
+
+    public void setAutoscaleMax(int autoscaleMax) {
+        this.autoscaleMax = autoscaleMax;
+    }
+
+    public long getAutoscaleDepth() {
+        return autoscaleDepth;
+    }
+
+    public void setAutoscaleDepth(long autoscaleDepth) {
+        this.autoscaleDepth = autoscaleDepth;
+    }
+
+    public int getSubsetSize() {
+        return subsetSize;
+    }
+
+    public void setSubsetSize(int subsetSize) {
+        this.subsetSize = subsetSize;
+    }
+
+    public int getSubsetNodes() {
+        return subsetNodes;
+    }
+
+    public void setSubsetNodes(int subsetNodes) {
+        this.subsetNodes = subsetNodes;
+    }
+
+    public int getSubsetInstances() {
+        return subsetInstances;
+    }
+
+    public void setSubsetInstances(int subsetInstances) {
+        this.subsetInstances = subsetInstances;
+    }
+
+    public double getSubsetMissProbability() {
+        return subsetMissProbability;
+    }
+
+    public void setSubsetMissProbability(double subsetMissProbability) {
+        this.subsetMissProbability = subsetMissProbability;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public WorkloadProfile getWorkloadProfile() {
+        return workloadProfile;
+    }
+
+    public void setWorkloadProfile(WorkloadProfile workloadProfile) {
+        this.workloadProfile = workloadProfile;
+    }
+
+    public boolean isAdaptiveWorkload() {
+        return adaptiveWorkload;
+    }
+
+    public void setAdaptiveWorkload(boolean adaptiveWorkload) {
+        this.adaptiveWorkload = adaptiveWorkload;
+    }
 }